@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses a synthetic simulation file, the throughput in lines per second is {@code lines} divided by the time per
+ * operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({ "2.1", "2.3", "3.0", "3.2", "3.4" })
+    public String version;
+
+    @Param({ "1000000" })
+    public long lines;
+
+    @Param({ "false" })
+    public boolean gzip;
+
+    @Param({ "1" })
+    public int split;
+
+    @Param({ "false" })
+    public boolean histogram;
+
+    protected File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = new SimulationGenerator(version).setGzip(gzip).generate(lines);
+    }
+
+    @Benchmark
+    public SimulationContext parse() throws IOException {
+        return ParserFactory.getParser(file)
+                            .setSplitThreads(split)
+                            .setHistogramPrecision(histogram ? DurationHistogram.DEFAULT_PRECISION : null)
+                            .parse();
+    }
+}
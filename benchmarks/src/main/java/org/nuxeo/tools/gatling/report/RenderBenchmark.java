@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders the simulation, diff and trend reports of synthetic simulations into a writer that only counts characters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({ "simulation", "diff", "trend" })
+    public String report;
+
+    @Param({ "false", "true" })
+    public boolean yaml;
+
+    @Param({ "100000" })
+    public long lines;
+
+    @Param({ "50" })
+    public int requests;
+
+    protected List<SimulationContext> stats;
+
+    @Setup
+    public void setup() throws IOException {
+        int count = "simulation".equals(report) ? 1 : "diff".equals(report) ? 2 : 5;
+        File file = new SimulationGenerator("3.4").setRequests(requests).generate(lines);
+        stats = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stats.add(ParserFactory.getParser(file).parse());
+        }
+    }
+
+    @Benchmark
+    public long render() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        new Report(stats).yamlReport(yaml).setWriter(writer).create();
+        return writer.count;
+    }
+
+    protected static class CountingWriter extends Writer {
+        protected long count;
+
+        @Override
+        public void write(char[] buffer, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates a synthetic simulation log in one of the supported Gatling formats. Users run one after the other, each
+ * one doing a fixed number of requests with log-normal response times, 1% of the requests fail.
+ * <p>
+ * Generated files are kept in the temporary directory and reused by the next runs with the same parameters.
+ */
+public class SimulationGenerator {
+
+    public static final String[] VERSIONS = { "2.1", "2.3", "3.0", "3.2", "3.4" };
+
+    protected static final long START = 1600000000000L;
+
+    protected static final String START_USER = "START";
+
+    protected static final String END_USER = "END";
+
+    protected final String version;
+
+    protected int requests = 50;
+
+    protected int scenarios = 2;
+
+    protected int requestsPerUser = 20;
+
+    protected boolean gzip;
+
+    protected File directory = new File(System.getProperty("java.io.tmpdir"));
+
+    public SimulationGenerator(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Number of distinct request names.
+     */
+    public SimulationGenerator setRequests(int requests) {
+        this.requests = requests;
+        return this;
+    }
+
+    public SimulationGenerator setScenarios(int scenarios) {
+        this.scenarios = scenarios;
+        return this;
+    }
+
+    public SimulationGenerator setRequestsPerUser(int requestsPerUser) {
+        this.requestsPerUser = requestsPerUser;
+        return this;
+    }
+
+    public SimulationGenerator setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    public SimulationGenerator setDirectory(File directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * Returns a simulation file with approximately this number of lines.
+     */
+    public File generate(long lines) throws IOException {
+        String name = String.format("simulation-%s-%d-%d-%d-%d.log%s", version, lines, requests, scenarios,
+                requestsPerUser, gzip ? ".gz" : "");
+        File ret = new File(directory, name);
+        if (ret.length() > 0) {
+            return ret;
+        }
+        File tmp = new File(directory, name + ".tmp");
+        try (OutputStream output = gzip ? new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024)
+                : new FileOutputStream(tmp);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8), 64 * 1024)) {
+            write(writer, lines);
+        }
+        if (!tmp.renameTo(ret)) {
+            throw new IOException("Can not create " + ret);
+        }
+        return ret;
+    }
+
+    protected void write(Writer writer, long lines) throws IOException {
+        Random random = new Random(42);
+        writeHeader(writer);
+        long count = 1;
+        long time = START;
+        long user = 0;
+        while (count < lines) {
+            user++;
+            String scenario = "Scenario " + (user % scenarios);
+            long userStart = time;
+            writeUser(writer, scenario, user, START_USER, userStart, userStart);
+            count++;
+            for (int i = 0; i < requestsPerUser && count < lines; i++) {
+                String request = "Request " + random.nextInt(requests);
+                long duration = (long) Math.exp(4.5 + 0.8 * random.nextGaussian());
+                writeRequest(writer, scenario, user, request, time, time + duration, random.nextInt(100) > 0);
+                time += duration + random.nextInt(10);
+                count++;
+            }
+            writeUser(writer, scenario, user, END_USER, userStart, time);
+            count++;
+        }
+    }
+
+    protected void writeHeader(Writer writer) throws IOException {
+        switch (version) {
+        case "2.1":
+            writeLine(writer, "org.nuxeo.Bench", "bench", "RUN", START, " ", "2.0");
+            break;
+        case "2.3":
+            writeLine(writer, "RUN", "org.nuxeo.Bench", "", "bench", START, "null", "2.0");
+            break;
+        case "3.0":
+            writeLine(writer, "RUN", "org.nuxeo.Bench", "bench", START, " ", "3.0");
+            break;
+        case "3.2":
+            writeLine(writer, "RUN", "org.nuxeo.Bench", "bench", START, " ", "3.2.1");
+            break;
+        case "3.4":
+            writeLine(writer, "RUN", "org.nuxeo.Bench", "bench", START, " ", "3.4.0");
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown version: " + version);
+        }
+    }
+
+    protected void writeUser(Writer writer, String scenario, long user, String type, long start, long end)
+            throws IOException {
+        switch (version) {
+        case "2.1":
+            writeLine(writer, scenario, user, "USER", type, start, START_USER.equals(type) ? 0 : end);
+            break;
+        case "3.4":
+            writeLine(writer, "USER", scenario, type, START_USER.equals(type) ? start : end);
+            break;
+        default:
+            writeLine(writer, "USER", scenario, user, type, start, START_USER.equals(type) ? start : end);
+        }
+    }
+
+    protected void writeRequest(Writer writer, String scenario, long user, String name, long start, long end,
+            boolean success) throws IOException {
+        String status = success ? "OK" : "KO";
+        switch (version) {
+        case "2.1":
+            writeLine(writer, scenario, user, "REQUEST", "", name, start, start, end, end, status, " ");
+            break;
+        case "2.3":
+            writeLine(writer, "REQUEST", scenario, user, "", name, start, end, status);
+            break;
+        case "3.4":
+            writeLine(writer, "REQUEST", "", name, start, end, status);
+            break;
+        default:
+            writeLine(writer, "REQUEST", user, "", name, start, end, status, " ");
+        }
+    }
+
+    protected void writeLine(Writer writer, Object... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                writer.write('\t');
+            }
+            writer.write(String.valueOf(fields[i]));
+        }
+        writer.write('\n');
+    }
+}
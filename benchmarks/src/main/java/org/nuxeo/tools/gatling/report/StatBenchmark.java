@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Computes the statistics of a simulation, the samples are spread over the requests either evenly or following a Zipf
+ * law where a few requests get most of the samples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StatBenchmark {
+
+    protected static final String SCENARIO = "Scenario";
+
+    @Param({ "10", "1000" })
+    public int requests;
+
+    @Param({ "100000", "1000000" })
+    public int samples;
+
+    @Param({ "uniform", "zipf" })
+    public String distribution;
+
+    @Param({ "false", "true" })
+    public boolean histogram;
+
+    protected String[] names;
+
+    protected int[] sampleRequests;
+
+    protected long[] sampleDurations;
+
+    protected SimulationContext context;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(42);
+        names = new String[requests];
+        for (int i = 0; i < requests; i++) {
+            names[i] = "Request " + i;
+        }
+        double[] cumulative = getCumulativeWeights();
+        sampleRequests = new int[samples];
+        sampleDurations = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            sampleRequests[i] = Math.min(requests - 1, index < 0 ? -index - 1 : index);
+            sampleDurations[i] = (long) Math.exp(4.5 + 0.8 * random.nextGaussian());
+        }
+    }
+
+    protected double[] getCumulativeWeights() {
+        double[] ret = new double[requests];
+        double total = 0;
+        for (int i = 0; i < requests; i++) {
+            total += "zipf".equals(distribution) ? 1.0 / (i + 1) : 1.0;
+            ret[i] = total;
+        }
+        for (int i = 0; i < requests; i++) {
+            ret[i] /= total;
+        }
+        return ret;
+    }
+
+    /**
+     * Statistics are computed once, a new context is filled before each call.
+     */
+    @Setup(Level.Invocation)
+    public void fill() {
+        context = new SimulationContext("bench", null, histogram ? DurationHistogram.DEFAULT_PRECISION : null);
+        context.setSimulationName("bench");
+        context.setScenarioName(SCENARIO);
+        context.addUser(SCENARIO);
+        for (int i = 0; i < samples; i++) {
+            context.addRequest(SCENARIO, names[sampleRequests[i]], i, i + sampleDurations[i], true);
+        }
+    }
+
+    @Benchmark
+    public SimulationContext computeStat() {
+        context.computeStat();
+        return context;
+    }
+}
@@ -54,6 +54,12 @@ public class Apdex {
         }
     }
 
+    public void merge(Apdex other) {
+        satisfied += other.satisfied;
+        tolerating += other.tolerating;
+        frustrated += other.frustrated;
+    }
+
     public float getScore() {
         long total = satisfied + tolerating + frustrated;
         if (total == 0) {
@@ -16,14 +16,28 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.log4j.Logger;
 
 import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
 
 public class App implements Runnable {
     protected static final String PROGRAM_NAME = "java -jar gatling-report.jar";
@@ -32,8 +46,17 @@ public class App implements Runnable {
 
     protected final Options options;
 
+    protected static final long SHUTDOWN_TIMEOUT = 30;
+
     protected List<SimulationContext> stats;
 
+    protected boolean reportDirectoryCreated;
+
+    protected HttpDownloader downloader;
+
+    // shared by all the parsers so a request has the same id in all the simulations
+    protected final SymbolTable symbols = new SymbolTable();
+
     public App(String[] args) {
         options = new Options();
         JCommander command = new JCommander(options, args);
@@ -42,6 +65,9 @@ public class App implements Runnable {
             command.usage();
             System.exit(0);
         }
+        if (options.simulations.isEmpty() && options.servePort == null) {
+            throw new ParameterException("Main parameters are required (\"SIMULATION.LOG...\")");
+        }
     }
 
     public static void main(String args[]) {
@@ -50,25 +76,298 @@ public class App implements Runnable {
 
     @Override
     public void run() {
-        parseSimulationFiles();
-        render();
+        if (options.outputDirectory != null && options.template == null) {
+            // compile the report templates while parsing
+            CompletableFuture.runAsync(() -> TemplateCache.getInstance().precompile());
+        }
+        if (options.servePort != null) {
+            serve();
+            return;
+        }
+        if (options.graphiteUrl != null) {
+            downloader = new HttpDownloader(options.graphiteParallelism).setTimeout(options.getGraphiteTimeout())
+                                                                        .setRetries(options.graphiteRetries)
+                                                                        .setCache(options.getGraphiteCache());
+        }
+        try {
+            if (options.follow) {
+                followSimulationFile();
+                return;
+            }
+            if (isGraphiteLoadedWhileParsing()) {
+                // images are downloaded in the report directory while the next simulations are parsed
+                createReportDirectory();
+            }
+            parseSimulationFiles();
+            if (options.merge && stats.size() > 1) {
+                mergeSimulations();
+            }
+            render();
+        } finally {
+            releaseDurations();
+            if (downloader != null) {
+                downloader.close();
+            }
+        }
+    }
+
+    /**
+     * Releases the durations of the rendered simulations, closing the temporary files used with --spill-dir.
+     */
+    protected void releaseDurations() {
+        if (stats != null) {
+            stats.forEach(SimulationContext::releaseDurations);
+        }
+    }
+
+    protected boolean isGraphiteLoadedWhileParsing() {
+        return options.graphiteUrl != null && options.outputDirectory != null && !options.merge;
+    }
+
+    /**
+     * Serves the reports until the process is stopped.
+     */
+    protected void serve() {
+        ReportServer server;
+        try {
+            server = new ReportServer(this, options.servePort, options.serveThreads, options.serveCache);
+            server.setMaxUploadSize(options.serveMaxUpload << 20).start();
+        } catch (IOException e) {
+            log.error("Can not listen on port: " + options.servePort, e);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    }
+
+    /**
+     * Parses the simulation while it is written and renders it periodically from another thread, a last rendering
+     * is done once following stops, including on interruption.
+     */
+    protected void followSimulationFile() {
+        if (options.simulations.size() != 1) {
+            throw new IllegalArgumentException("--follow expects a single simulation file");
+        }
+        File file = new File(options.simulations.get(0));
+        SimulationFollower follower;
+        try {
+            waitForHeader(file);
+            SimulationParser parser = ParserFactory.getParser(file, options.apdexT)
+                                                   .setHistogramPrecision(options.getHistogramPrecision())
+                                                   .setExtraPercentiles(options.getExtraPercentiles())
+                                                   .setWindow(options.getWindow())
+                                                   .setSpillDirectory(options.getSpillDirectory())
+                                                   .setSymbolTable(symbols);
+            follower = new SimulationFollower(parser).setIdleTimeout(SECONDS.toMillis(options.followTimeout));
+        } catch (IOException e) {
+            log.error("Invalid file: " + file.getAbsolutePath(), e);
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        Thread hook = new Thread(() -> {
+            follower.close();
+            try {
+                done.await(SHUTDOWN_TIMEOUT, SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+        try {
+            ScheduledExecutorService renderer = Executors.newSingleThreadScheduledExecutor();
+            try {
+                log.info("Following " + file.getAbsolutePath());
+                renderer.scheduleWithFixedDelay(() -> renderFollowed(follower), options.followInterval,
+                        options.followInterval, SECONDS);
+                follower.run();
+            } finally {
+                renderer.shutdownNow();
+            }
+            renderFollowed(follower);
+        } finally {
+            done.countDown();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // already shutting down
+        }
+    }
+
+    /**
+     * Waits for the complete header line, the format of the simulation can not be detected from a partial one.
+     */
+    protected void waitForHeader(File file) throws IOException {
+        while (!hasHeaderLine(file)) {
+            try {
+                Thread.sleep(SimulationFollower.DEFAULT_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    protected boolean hasHeaderLine(File file) throws IOException {
+        if (file.length() == 0) {
+            return false;
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            for (int i = 0; i < ParserFactory.MAX_HEADER_SIZE; i++) {
+                int c = input.read();
+                if (c == '\n') {
+                    return true;
+                }
+                if (c == -1) {
+                    return false;
+                }
+            }
+        }
+        // no new line in the first bytes, this is not a simulation and it is reported by the parser
+        return true;
+    }
+
+    protected void renderFollowed(SimulationFollower follower) {
+        try {
+            follower.snapshot(context -> {
+                // the dashboard time range follows the simulation
+                context.simStat.graphite = null;
+                stats = Collections.singletonList(context);
+                render();
+            });
+        } catch (RuntimeException e) {
+            // keep rendering on the next interval
+            log.error("Can not render " + follower.getContext().filePath, e);
+        }
     }
 
     protected void parseSimulationFiles() {
-        stats = new ArrayList<>(options.simulations.size());
-        options.simulations.forEach(simulation -> parseSimulationFile(new File(simulation)));
+        int nbFiles = options.simulations.size();
+        stats = new ArrayList<>(nbFiles);
+        boolean releaseDurations = isStatOnly();
+        boolean loadGraphite = isGraphiteLoadedWhileParsing();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(options.parallelism, nbFiles)));
+        try {
+            List<Future<SimulationContext>> futures = new ArrayList<>(nbFiles);
+            options.simulations.forEach(simulation -> futures.add(executor.submit(() -> {
+                SimulationContext stat = parseSimulationFile(new File(simulation));
+                if (stat != null && loadGraphite) {
+                    loadGraphite(stat);
+                }
+                // only the computed stats are kept while the next simulations are parsed
+                return stat != null && releaseDurations ? stat.releaseDurations() : stat;
+            })));
+            // keep the command line order
+            int indice = 1;
+            for (Future<SimulationContext> future : futures) {
+                SimulationContext stat = getResult(future);
+                if (stat != null) {
+                    stats.add(stat);
+                    indice = stat.renumber(indice);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
-    protected void parseSimulationFile(File file) {
+    /**
+     * True when the rendering only needs the computed stats and not the response times: CSV stats or a trend report
+     * with the default template.
+     */
+    protected boolean isStatOnly() {
+        if (options.merge) {
+            return false;
+        }
+        if (options.outputDirectory == null) {
+            return true;
+        }
+        return options.simulations.size() > 2 && options.template == null && options.map.isEmpty();
+    }
+
+    /**
+     * Loads the Graphite dashboard of the simulation and starts downloading its images in the report directory.
+     */
+    protected void loadGraphite(SimulationContext stat) {
+        stat.simStat.graphite = new Graphite(options.graphiteUrl, options.user, options.password, stat,
+                new File(options.outputDirectory), options.getZoneId(), downloader);
+    }
+
+    protected void mergeSimulations() {
         final long startTime = System.currentTimeMillis();
+        List<SimulationContext> simulations = stats;
+        stats = Collections.singletonList(SimulationContext.merge(simulations));
+        // the merged durations are copied
+        simulations.forEach(SimulationContext::releaseDurations);
+        log.info("Merge finished in " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+
+    protected SimulationContext getResult(Future<SimulationContext> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing simulations", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    protected SimulationContext parseSimulationFile(File file) {
+        return parseSimulationFile(file, symbols);
+    }
+
+    /**
+     * @param symbols the table where the names of the simulation are registered, a simulation parsed with its own table
+     *            does not keep its names in memory once released
+     */
+    protected SimulationContext parseSimulationFile(File file, SymbolTable symbols) {
+        final long startTime = System.currentTimeMillis();
+        // durations spilled to disk are not summarized
+        SummaryCache cache = options.cache && options.spillDirectory == null
+                ? new SummaryCache(options.apdexT, options.getHistogramPrecision())
+                        .setWindow(options.getWindow())
+                        .setExtraPercentiles(options.getExtraPercentiles())
+                : null;
+        if (cache != null) {
+            SimulationContext ret = cache.load(file);
+            if (ret != null) {
+                ret.setSymbolTable(new SymbolTable(symbols)).setExtraPercentiles(options.getExtraPercentiles());
+                ret.computeStat();
+                log.info("Summary loaded in " + (System.currentTimeMillis() - startTime) + " ms. File "
+                        + file.getAbsolutePath());
+                return ret;
+            }
+        }
         log.info("Parsing " + file.getAbsolutePath());
         try {
-            SimulationParser parser = ParserFactory.getParser(file, options.apdexT);
-            stats.add(parser.parse());
+            SimulationParser parser = ParserFactory.getParser(file, options.apdexT)
+                                                   .setHistogramPrecision(options.getHistogramPrecision())
+                                                   .setExtraPercentiles(options.getExtraPercentiles())
+                                                   .setWindow(options.getWindow())
+                                                   .setSpillDirectory(options.getSpillDirectory())
+                                                   .setSplitThreads(options.split)
+                                                   .setSymbolTable(symbols);
+            SimulationContext ret = parser.parse();
             final long endTime = System.currentTimeMillis();
             log.info("Parsing finished in " + (endTime - startTime) + " ms. File " + file.getAbsolutePath());
+            if (cache != null) {
+                saveSummary(cache, file, ret);
+            }
+            return ret;
         } catch (IOException e) {
             log.error("Invalid file: " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    protected void saveSummary(SummaryCache cache, File file, SimulationContext context) {
+        try {
+            cache.save(file, context);
+        } catch (IOException e) {
+            log.warn("Can not write summary of: " + file.getAbsolutePath() + ", " + e.getMessage());
         }
     }
 
@@ -84,29 +383,39 @@ public class App implements Runnable {
         }
     }
 
-    protected void renderAsReport() throws IOException {
+    protected void createReportDirectory() {
         File dir = new File(options.outputDirectory);
-        if (!dir.mkdirs()) {
+        // a followed simulation is rendered many times in the same directory
+        if (!dir.mkdirs() && !reportDirectoryCreated) {
             if (!options.force) {
                 log.error("Abort, report directory already exists, use -f to override.");
                 System.exit(-2);
             }
             log.warn("Overriding existing report directory" + options.outputDirectory);
         }
+        reportDirectoryCreated = true;
+    }
+
+    protected void renderAsReport() throws IOException {
+        createReportDirectory();
+        File dir = new File(options.outputDirectory);
         String reportPath = new Report(stats).setOutputDirectory(dir)
                                              .includeJs(options.includeJs)
                                              .setTemplate(options.template)
                                              .includeGraphite(options.graphiteUrl, options.user, options.password,
                                                      options.getZoneId())
+                                             .setDownloader(downloader)
                                              .yamlReport(options.yaml)
                                              .withMap(options.map)
                                              .setFilename(options.outputName)
+                                             .compactBoxPlot(options.compact)
+                                             .gzip(options.gzip)
                                              .create();
         log.info("Report generated: " + reportPath);
     }
 
     protected void renderAsCsv() {
-        System.out.println(RequestStat.header());
+        System.out.println(RequestStat.header(options.getExtraPercentiles()));
         stats.forEach(System.out::println);
     }
 }
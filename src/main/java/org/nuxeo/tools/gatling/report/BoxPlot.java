@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Box plot statistics computed on all the durations with a bounded sample of them to draw the points. Its string
+ * representation is a javascript object literal, the size does not depend on the number of requests.
+ *
+ * @since 5.1
+ */
+public class BoxPlot {
+    public static final int SAMPLE_SIZE = 2000;
+
+    protected static final double[] QUARTILES = { 25.0, 50.0, 75.0 };
+
+    protected final double q1, median, q3, mean, sd;
+
+    protected final long lowerFence, upperFence;
+
+    protected final long[] sample;
+
+    protected final boolean base64;
+
+    /**
+     * @param base64 encodes the sample as a base64 string of little-endian Float32 values instead of a list of numbers
+     */
+    public BoxPlot(Durations durations, double mean, double sd, int sampleSize, boolean base64) {
+        double[] quartiles = durations.getPercentiles(QUARTILES);
+        q1 = quartiles[0];
+        median = quartiles[1];
+        q3 = quartiles[2];
+        double iqr = q3 - q1;
+        // whiskers end at the most extreme values within 1.5 IQR of the box
+        lowerFence = durations.ceiling(q1 - 1.5 * iqr);
+        upperFence = durations.floor(q3 + 1.5 * iqr);
+        this.mean = mean;
+        this.sd = sd;
+        sample = durations.getSample(sampleSize);
+        this.base64 = base64;
+    }
+
+    public BoxPlot(Durations durations, double mean, double sd, boolean base64) {
+        this(durations, mean, sd, SAMPLE_SIZE, base64);
+    }
+
+    /**
+     * A box plot of statistics computed beforehand, see {@link DurationSummary}.
+     */
+    public BoxPlot(double q1, double median, double q3, long lowerFence, long upperFence, double mean, double sd,
+            long[] sample, boolean base64) {
+        this.q1 = q1;
+        this.median = median;
+        this.q3 = q3;
+        this.lowerFence = lowerFence;
+        this.upperFence = upperFence;
+        this.mean = mean;
+        this.sd = sd;
+        this.sample = sample;
+        this.base64 = base64;
+    }
+
+    protected String getEncodedSample() {
+        ByteBuffer buffer = ByteBuffer.allocate(sample.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (long value : sample) {
+            buffer.putFloat(value);
+        }
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder(sample.length * 6 + 200);
+        ret.append(String.format(Locale.ENGLISH,
+                "{q1: %.1f, median: %.1f, q3: %.1f, lowerfence: %d, upperfence: %d, mean: %.1f, sd: %.1f, y: ", q1,
+                median, q3, lowerFence, upperFence, mean, sd));
+        if (base64) {
+            ret.append('\'').append(getEncodedSample()).append('\'');
+        } else {
+            ret.append('[');
+            for (int i = 0; i < sample.length; i++) {
+                if (i > 0) {
+                    ret.append(", ");
+                }
+                ret.append(sample[i]);
+            }
+            ret.append(']');
+        }
+        return ret.append('}').toString();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Downloaded contents stored in a directory, one file per key named after its SHA-1, the key being the URL and a hash
+ * of the credentials used to download it. The URL of a Graphite dashboard
+ * or image contains its time range, so a report generated again on the same simulation is built from the cache.
+ * <p>
+ * The modification time of a file is updated when it is read, when the directory exceeds its maximum size the least
+ * recently used files are removed.
+ *
+ * @since 5.1
+ */
+public class DownloadCache {
+    private final static Logger log = Logger.getLogger(DownloadCache.class);
+
+    public static final long DEFAULT_MAX_SIZE = 100L * 1024 * 1024;
+
+    protected static final String SUFFIX = ".cache";
+
+    protected final File directory;
+
+    protected final long maxSize;
+
+    public DownloadCache(File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize the maximum size of the cached contents in bytes
+     */
+    public DownloadCache(File directory, long maxSize) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Can not create cache directory: " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached content of the URL, null if it is not cached.
+     */
+    public byte[] get(String url) {
+        File file = getFile(url);
+        try {
+            byte[] ret = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            return ret;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("Can not read cache file: " + file.getAbsolutePath() + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the content of the URL, then evicts the least recently used contents above the maximum size.
+     */
+    public void put(String url, byte[] content) {
+        File file = getFile(url);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("download", ".tmp", directory);
+            Files.write(tmp.toPath(), content);
+            Files.move(tmp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Can not write cache file: " + file.getAbsolutePath() + ", " + e.getMessage());
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return;
+        }
+        evict();
+    }
+
+    protected synchronized void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        // file times are read once, they change while sorting when the files are read concurrently
+        Entry[] entries = new Entry[files.length];
+        long size = 0;
+        for (int i = 0; i < files.length; i++) {
+            entries[i] = new Entry(files[i]);
+            size += entries[i].length;
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(entry -> entry.lastModified));
+        for (Entry entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            // another process may have removed it already
+            if (entry.file.delete() || !entry.file.exists()) {
+                size -= entry.length;
+            }
+        }
+    }
+
+    protected static class Entry {
+        final File file;
+
+        final long lastModified;
+
+        final long length;
+
+        Entry(File file) {
+            this.file = file;
+            lastModified = file.lastModified();
+            length = file.length();
+        }
+    }
+
+    protected File getFile(String url) {
+        return new File(directory, sha1(url) + SUFFIX);
+    }
+
+    /**
+     * Returns the SHA-1 of the string as an hexadecimal string.
+     */
+    public static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder ret = new StringBuilder();
+            for (byte b : digest.digest(value.getBytes(UTF_8))) {
+                ret.append(String.format("%02x", b));
+            }
+            return ret.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
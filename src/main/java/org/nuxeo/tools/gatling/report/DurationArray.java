@@ -0,0 +1,224 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of response times in milliseconds, stored as primitive int to avoid boxing. Statistics are
+ * computed on the array itself, sorting it in place.
+ */
+public class DurationArray implements Durations {
+    protected static final int DEFAULT_CAPACITY = 16;
+
+    protected int[] values;
+
+    protected int size;
+
+    protected boolean sorted = true;
+
+    protected int momentsSize = -1;
+
+    protected double mean, stddev;
+
+    public DurationArray() {
+        values = new int[DEFAULT_CAPACITY];
+    }
+
+    @Override
+    public void add(long duration) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        int value = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, duration));
+        if (size > 0 && value < values[size - 1]) {
+            sorted = false;
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    public void merge(Durations other) {
+        if (!(other instanceof DurationArray)) {
+            throw new IllegalArgumentException("Can not merge durations of type: " + other.getClass().getSimpleName());
+        }
+        DurationArray array = (DurationArray) other;
+        if (size + array.size > values.length) {
+            values = Arrays.copyOf(values, size + array.size);
+        }
+        System.arraycopy(array.values, 0, values, size, array.size);
+        if (size > 0 && array.size > 0 && array.values[0] < values[size - 1]) {
+            sorted = false;
+        }
+        sorted = sorted && array.sorted;
+        size += array.size;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public void sort() {
+        if (!sorted) {
+            Arrays.sort(values, 0, size);
+            sorted = true;
+        }
+    }
+
+    @Override
+    public long getMin() {
+        sort();
+        return size == 0 ? 0 : values[0];
+    }
+
+    @Override
+    public long getMax() {
+        sort();
+        return size == 0 ? 0 : values[size - 1];
+    }
+
+    @Override
+    public double getMean() {
+        computeMoments();
+        return mean;
+    }
+
+    @Override
+    public double getStdDev() {
+        computeMoments();
+        return stddev;
+    }
+
+    /**
+     * Computes the mean and the bias corrected standard deviation in two passes, same as commons-math
+     * {@code StandardDeviation}.
+     */
+    protected void computeMoments() {
+        if (momentsSize == size) {
+            return;
+        }
+        momentsSize = size;
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i];
+        }
+        mean = sum / size;
+        if (size == 0) {
+            stddev = Double.NaN;
+            return;
+        }
+        if (size == 1) {
+            stddev = 0.0;
+            return;
+        }
+        double accum = 0.0;
+        double accum2 = 0.0;
+        for (int i = 0; i < size; i++) {
+            double dev = values[i] - mean;
+            accum += dev * dev;
+            accum2 += dev;
+        }
+        stddev = Math.sqrt((accum - (accum2 * accum2 / size)) / (size - 1));
+    }
+
+    /**
+     * Percentile using the same estimation as commons-math {@code Percentile}.
+     */
+    @Override
+    public double getPercentile(double p) {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        sort();
+        if (size == 1) {
+            return values[0];
+        }
+        double pos = p * (size + 1) / 100;
+        double fpos = Math.floor(pos);
+        int intPos = (int) fpos;
+        double dif = pos - fpos;
+        if (pos < 1) {
+            return values[0];
+        }
+        if (pos >= size) {
+            return values[size - 1];
+        }
+        double lower = values[intPos - 1];
+        double upper = values[intPos];
+        return lower + dif * (upper - lower);
+    }
+
+    @Override
+    public long ceiling(double value) {
+        sort();
+        int index = lowerBound(value, false);
+        return index < size ? values[index] : getMax();
+    }
+
+    @Override
+    public long floor(double value) {
+        sort();
+        int index = lowerBound(value, true) - 1;
+        return index >= 0 ? values[index] : getMin();
+    }
+
+    /**
+     * Returns the index of the first value greater than or equal to the given value, or strictly greater if
+     * {@code strict} is true.
+     */
+    protected int lowerBound(double value, boolean strict) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < value || (strict && values[mid] == value)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public long[] getSample(int sampleSize) {
+        sort();
+        int count = Math.min(size, sampleSize);
+        long[] ret = new long[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = values[count == 1 ? 0 : (int) Math.round((double) i * (size - 1) / (count - 1))];
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder(size * 4 + 2);
+        ret.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                ret.append(", ");
+            }
+            ret.append(values[i]);
+        }
+        return ret.append(']').toString();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size log-bucketed histogram of response times, using the HdrHistogram bucket layout. Memory does not depend
+ * on the number of recorded values, percentiles are accurate to the configured number of significant digits. Min, max,
+ * mean and standard deviation are exact.
+ */
+public class DurationHistogram implements Durations {
+    public static final int DEFAULT_PRECISION = 2;
+
+    protected static final long HIGHEST_TRACKABLE_VALUE = Integer.MAX_VALUE;
+
+    protected final int precision;
+
+    protected final int subBucketHalfCountMagnitude;
+
+    protected final int subBucketHalfCount;
+
+    protected final long subBucketMask;
+
+    protected final int leadingZeroCountBase;
+
+    protected final long[] counts;
+
+    protected long totalCount;
+
+    protected long min = Long.MAX_VALUE, max;
+
+    protected double sum, sumOfSquares;
+
+    /**
+     * @param precision the number of significant decimal digits to keep, between 1 and 5
+     */
+    public DurationHistogram(int precision) {
+        if (precision < 1 || precision > 5) {
+            throw new IllegalArgumentException("Invalid histogram precision: " + precision + ", expecting 1 to 5");
+        }
+        this.precision = precision;
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(2 * Math.pow(10, precision)) / Math.log(2));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+        int bucketCount = 1;
+        long smallestUntrackableValue = subBucketCount;
+        while (smallestUntrackableValue <= HIGHEST_TRACKABLE_VALUE) {
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        counts = new long[(bucketCount + 1) * subBucketHalfCount];
+    }
+
+    @Override
+    public void add(long duration) {
+        long value = Math.max(0, Math.min(HIGHEST_TRACKABLE_VALUE, duration));
+        counts[getIndex(value)]++;
+        totalCount++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+        sumOfSquares += (double) value * value;
+    }
+
+    /**
+     * Adds the values of another histogram with the same precision, or the exact values of a {@link DurationArray}.
+     */
+    @Override
+    public void merge(Durations other) {
+        if (other instanceof DurationArray) {
+            DurationArray array = (DurationArray) other;
+            for (int i = 0; i < array.size(); i++) {
+                add(array.get(i));
+            }
+            return;
+        }
+        if (!(other instanceof DurationHistogram) || ((DurationHistogram) other).precision != precision) {
+            throw new IllegalArgumentException("Can not merge durations of type: " + other.getClass().getSimpleName());
+        }
+        DurationHistogram histogram = (DurationHistogram) other;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += histogram.counts[i];
+        }
+        totalCount += histogram.totalCount;
+        min = Math.min(min, histogram.min);
+        max = Math.max(max, histogram.max);
+        sum += histogram.sum;
+        sumOfSquares += histogram.sumOfSquares;
+    }
+
+    protected int getIndex(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    protected long getLowestValue(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    protected long getHighestValue(int index) {
+        long lowest = getLowestValue(index);
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(lowest | subBucketMask);
+        return lowest + (1L << bucketIndex) - 1;
+    }
+
+    @Override
+    public long size() {
+        return totalCount;
+    }
+
+    @Override
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    @Override
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public double getMean() {
+        return sum / totalCount;
+    }
+
+    @Override
+    public double getStdDev() {
+        if (totalCount == 0) {
+            return Double.NaN;
+        }
+        if (totalCount == 1) {
+            return 0.0;
+        }
+        double mean = getMean();
+        double variance = (sumOfSquares - totalCount * mean * mean) / (totalCount - 1);
+        return Math.sqrt(Math.max(0.0, variance));
+    }
+
+    @Override
+    public double getPercentile(double p) {
+        return getPercentiles(new double[] { p })[0];
+    }
+
+    /**
+     * Computes all the percentiles in a single walk over the buckets.
+     */
+    @Override
+    public double[] getPercentiles(double[] percentiles) {
+        double[] ret = new double[percentiles.length];
+        if (totalCount == 0) {
+            Arrays.fill(ret, Double.NaN);
+            return ret;
+        }
+        int p = 0;
+        long total = 0;
+        for (int i = 0; i < counts.length && p < percentiles.length; i++) {
+            total += counts[i];
+            while (p < percentiles.length && total >= getCountAtPercentile(percentiles[p])) {
+                ret[p++] = Math.max(min, Math.min(max, getHighestValue(i)));
+            }
+        }
+        while (p < percentiles.length) {
+            ret[p++] = max;
+        }
+        return ret;
+    }
+
+    protected long getCountAtPercentile(double p) {
+        return Math.max(1, (long) ((p / 100.0) * totalCount + 0.5));
+    }
+
+    @Override
+    public long ceiling(double value) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0 && getHighestValue(i) >= value) {
+                return Math.max(min, Math.min(max, getHighestValue(i)));
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public long floor(double value) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0 && getHighestValue(i) <= value) {
+                return Math.max(min, Math.min(max, getHighestValue(i)));
+            }
+        }
+        return getMin();
+    }
+
+    @Override
+    public long[] getSample(int size) {
+        int points = (int) Math.min(totalCount, size);
+        long[] ret = new long[points];
+        long total = 0;
+        int point = 0;
+        for (int i = 0; i < counts.length && point < points; i++) {
+            total += counts[i];
+            long value = Math.max(min, Math.min(max, getHighestValue(i)));
+            // the rank of the sampled values goes from 0 to totalCount - 1
+            while (point < points && (points == 1 ? 0 : (double) point * (totalCount - 1) / (points - 1)) < total) {
+                ret[point++] = value;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a list of at most {@link BoxPlot#SAMPLE_SIZE} values evenly spread over the recorded distribution,
+     * suitable to render a box plot.
+     */
+    @Override
+    public String toString() {
+        return Arrays.toString(getSample(BoxPlot.SAMPLE_SIZE));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Arrays;
+import java.util.stream.DoubleStream;
+
+/**
+ * The exact stats of recorded durations without the durations: min, max, mean, standard deviation, a fixed set of
+ * percentiles and the box plot with its bounded sample. It is stored by the {@link SummaryCache} next to a mergeable
+ * histogram, so a loaded simulation renders the same stats as a parsed one.
+ *
+ * @since 5.1
+ */
+public class DurationSummary {
+
+    protected long min, max;
+
+    protected double mean, stddev;
+
+    // sorted
+    protected double[] percentiles;
+
+    protected double[] values;
+
+    protected long lowerFence, upperFence;
+
+    protected long[] sample;
+
+    protected DurationSummary() {
+        // filled by the summary cache
+    }
+
+    /**
+     * Summarizes the durations with the given percentiles and the ones needed by the box plot.
+     */
+    public DurationSummary(Durations durations, double[] percentiles, int sampleSize) {
+        min = durations.getMin();
+        max = durations.getMax();
+        mean = durations.getMean();
+        stddev = durations.getStdDev();
+        this.percentiles = DoubleStream.concat(Arrays.stream(percentiles), Arrays.stream(BoxPlot.QUARTILES))
+                                       .distinct()
+                                       .sorted()
+                                       .toArray();
+        values = durations.getPercentiles(this.percentiles);
+        BoxPlot box = new BoxPlot(durations, mean, stddev, sampleSize, false);
+        lowerFence = box.lowerFence;
+        upperFence = box.upperFence;
+        sample = box.sample;
+    }
+
+    /**
+     * Returns the values of summarized percentiles.
+     */
+    public double[] getPercentiles(double[] percentiles) {
+        double[] ret = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            int index = Arrays.binarySearch(this.percentiles, percentiles[i]);
+            if (index < 0) {
+                throw new IllegalArgumentException("Percentile not summarized: " + percentiles[i]);
+            }
+            ret[i] = values[index];
+        }
+        return ret;
+    }
+
+    public BoxPlot getBoxPlot(double mean, double sd, boolean base64) {
+        double[] quartiles = getPercentiles(BoxPlot.QUARTILES);
+        return new BoxPlot(quartiles[0], quartiles[1], quartiles[2], lowerFence, upperFence, mean, sd, sample,
+                base64);
+    }
+}
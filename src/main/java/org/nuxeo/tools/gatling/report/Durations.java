@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+/**
+ * Records the response times in milliseconds of a request and computes its statistics.
+ */
+public interface Durations {
+
+    void add(long duration);
+
+    /**
+     * Adds all the durations recorded by another instance of the same type.
+     */
+    void merge(Durations other);
+
+    long size();
+
+    long getMin();
+
+    long getMax();
+
+    double getMean();
+
+    double getStdDev();
+
+    double getPercentile(double p);
+
+    /**
+     * Computes multiple percentiles at once, the percentiles must be sorted in ascending order.
+     */
+    default double[] getPercentiles(double[] percentiles) {
+        double[] ret = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            ret[i] = getPercentile(percentiles[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the smallest recorded value greater than or equal to the given value, the max if there is none.
+     */
+    long ceiling(double value);
+
+    /**
+     * Returns the greatest recorded value less than or equal to the given value, the min if there is none.
+     */
+    long floor(double value);
+
+    /**
+     * Returns at most {@code size} values evenly spread over the recorded distribution in ascending order, from the
+     * min to the max.
+     */
+    long[] getSample(int size);
+
+}
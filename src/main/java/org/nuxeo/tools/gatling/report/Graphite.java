@@ -24,6 +24,7 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.log4j.Logger;
 import org.json.simple.JSONArray;
@@ -52,8 +53,29 @@ public class Graphite {
 
     protected final File outputDirectory;
 
+    protected final HttpDownloader downloader;
+
+    // basic authentication sent with each request of this dashboard
+    protected final String authorization;
+
+    // graphs of a time range that is not over may change
+    protected final boolean cached;
+
+    protected final List<CompletableFuture<Void>> downloads = new ArrayList<>();
+
     public Graphite(String graphiteUrl, String user, String password, SimulationContext stats, File outputDirectory,
             ZoneId zoneId) {
+        this(graphiteUrl, user, password, stats, outputDirectory, zoneId, HttpDownloader.getDefault());
+    }
+
+    /**
+     * Loads the dashboard and starts downloading its images with the downloader, use {@link #waitForImages()} before
+     * using them.
+     *
+     * @since 5.1
+     */
+    public Graphite(String graphiteUrl, String user, String password, SimulationContext stats, File outputDirectory,
+            ZoneId zoneId, HttpDownloader downloader) {
         this.dashboardUrl = graphiteUrl;
         baseUrl = Utils.getBaseUrl(graphiteUrl);
         if (zoneId == null) {
@@ -63,10 +85,13 @@ public class Graphite {
         }
         this.from = getDateAsString(stats.simStat.start - 30000L);
         this.until = getDateAsString(stats.simStat.end + 60000L); // add one more minute to prevent empty chart
+        // the until date is truncated to the minute
+        this.cached = stats.simStat.end + 120000L < System.currentTimeMillis();
         this.outputDirectory = outputDirectory;
         this.user = user;
         this.password = password;
-        Utils.setBasicAuth(user, password);
+        this.downloader = downloader;
+        authorization = Utils.getBasicAuthorization(user, password);
         parseDashboard();
         downloadImages();
     }
@@ -79,18 +104,34 @@ public class Graphite {
     protected void downloadImages() {
         images.forEach(image -> {
             try {
-                downloadImage(image);
+                downloads.add(downloadImage(image).exceptionally(e -> {
+                    logDownloadError(image, e);
+                    return null;
+                }));
             } catch (IOException e) {
-                log.warn("Fail to download image: " + image.title);
-                if (log.isDebugEnabled())
-                    log.debug("Download error", e);
+                logDownloadError(image, e);
             }
         });
     }
 
-    protected void downloadImage(Image image) throws IOException {
+    protected CompletableFuture<Void> downloadImage(Image image) throws IOException {
         File dest = image.getFile(outputDirectory);
-        Utils.download(new URL(image.url), dest);
+        return downloader.downloadAsync(new URL(image.url), dest, authorization, cached);
+    }
+
+    protected void logDownloadError(Image image, Throwable e) {
+        log.warn("Fail to download image: " + image.title);
+        if (log.isDebugEnabled())
+            log.debug("Download error", e);
+    }
+
+    /**
+     * Waits for the images being downloaded, an image that can not be downloaded is only logged.
+     *
+     * @since 5.1
+     */
+    public void waitForImages() {
+        downloads.forEach(CompletableFuture::join);
     }
 
     protected void parseDashboard() {
@@ -114,7 +155,7 @@ public class Graphite {
     protected String getJsonDashboard() throws IOException {
         String url = getJsonDashboardUrl();
         log.info("Downloading: " + url);
-        return Utils.getContent(new URL(url));
+        return downloader.getContent(new URL(url), authorization, cached);
     }
 
     protected String getJsonDashboardUrl() {
@@ -127,11 +168,13 @@ public class Graphite {
 
         final String title;
 
-        String filename;
+        final String filename;
 
         public Image(String url, String title, String from, String until) {
             this.url = getUrl(url, from, until);
             this.title = title;
+            // known before the download so the report can be rendered meanwhile
+            filename = (title + "_" + from).replaceAll("\\W+", "") + ".png";
         }
 
         protected String getUrl(String url, String from, String until) {
@@ -139,7 +182,6 @@ public class Graphite {
         }
 
         public File getFile(File outputDirectory) {
-            filename = (title + "_" + from).replaceAll("\\W+", "") + ".png";
             return new File(outputDirectory, filename);
         }
     }
@@ -0,0 +1,293 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Downloads with connect and read timeouts, retries on transient network errors and server errors, and a bounded pool
+ * of threads for asynchronous downloads.
+ * <p>
+ * Responses are always read to the end so the JDK keeps the HTTP connections alive and reuses them for the next
+ * requests to the same server. Credentials are given per request, so the same downloader can be used for servers with
+ * different credentials.
+ *
+ * @since 5.1
+ */
+public class HttpDownloader implements Closeable {
+    private final static Logger log = Logger.getLogger(HttpDownloader.class);
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public static final int DEFAULT_TIMEOUT = 30_000;
+
+    public static final int DEFAULT_RETRIES = 2;
+
+    protected static final long RETRY_DELAY = 500;
+
+    protected static final AtomicInteger threadCounter = new AtomicInteger();
+
+    protected final ExecutorService executor;
+
+    protected int timeout = DEFAULT_TIMEOUT;
+
+    protected int retries = DEFAULT_RETRIES;
+
+    protected DownloadCache cache;
+
+    /**
+     * Returns a downloader with the default settings shared by the reports that are not given one.
+     */
+    public static HttpDownloader getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public HttpDownloader() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism the maximum number of concurrent asynchronous downloads
+     */
+    public HttpDownloader(int parallelism) {
+        executor = Executors.newFixedThreadPool(Math.max(1, parallelism), runnable -> {
+            Thread thread = new Thread(runnable, "download-" + threadCounter.incrementAndGet());
+            // pending downloads must not prevent the JVM from exiting
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the connect and read timeout in milliseconds.
+     */
+    public HttpDownloader setTimeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Sets the number of attempts after a failure.
+     */
+    public HttpDownloader setRetries(int retries) {
+        this.retries = retries;
+        return this;
+    }
+
+    /**
+     * Keeps the downloaded contents in this cache, contents found in the cache are not downloaded again.
+     *
+     * @param cache the cache to use, null to disable caching
+     */
+    public HttpDownloader setCache(DownloadCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public DownloadCache getCache() {
+        return cache;
+    }
+
+    public String getContent(URL url) throws IOException {
+        return getContent(url, null);
+    }
+
+    /**
+     * @param authorization the Authorization header sent with the request, null for none
+     */
+    public String getContent(URL url, String authorization) throws IOException {
+        return getContent(url, authorization, true);
+    }
+
+    public String getContent(URL url, String authorization, boolean cached) throws IOException {
+        return new String(get(url, authorization, cached), UTF_8);
+    }
+
+    public void download(URL src, File dest) throws IOException {
+        download(src, dest, null);
+    }
+
+    public void download(URL src, File dest, String authorization) throws IOException {
+        download(src, dest, authorization, true);
+    }
+
+    public void download(URL src, File dest, String authorization, boolean cached) throws IOException {
+        Files.write(dest.toPath(), get(src, authorization, cached));
+    }
+
+    /**
+     * Downloads the file using the pool, the future completes exceptionally with an {@link UncheckedIOException} once
+     * all the attempts failed.
+     */
+    public CompletableFuture<Void> downloadAsync(URL src, File dest, String authorization) {
+        return downloadAsync(src, dest, authorization, true);
+    }
+
+    public CompletableFuture<Void> downloadAsync(URL src, File dest, String authorization, boolean cached) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                download(src, dest, authorization, cached);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    public byte[] get(URL url) throws IOException {
+        return get(url, null);
+    }
+
+    public byte[] get(URL url, String authorization) throws IOException {
+        return get(url, authorization, true);
+    }
+
+    /**
+     * Returns the response body, retrying on connection errors, timeouts, server errors and too many requests.
+     *
+     * @param cached false when the content may still change, it is then neither read from nor written to the cache
+     */
+    public byte[] get(URL url, String authorization, boolean cached) throws IOException {
+        if (cache == null || !cached) {
+            return fetchWithRetries(url, authorization);
+        }
+        String key = getCacheKey(url, authorization);
+        byte[] ret = cache.get(key);
+        if (ret == null) {
+            ret = fetchWithRetries(url, authorization);
+            cache.put(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * The content depends on the credentials, they are part of the key as a hash.
+     */
+    protected String getCacheKey(URL url, String authorization) {
+        if (authorization == null) {
+            return url.toString();
+        }
+        return url.toString() + " " + DownloadCache.sha1(authorization);
+    }
+
+    protected byte[] fetchWithRetries(URL url, String authorization) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            try {
+                return fetch(url, authorization);
+            } catch (IOException e) {
+                if (attempt >= retries || !isRetryable(e)) {
+                    throw e;
+                }
+                log.debug("Retrying " + url + " after: " + e.getMessage());
+                sleep(RETRY_DELAY * (attempt + 1));
+            }
+        }
+    }
+
+    protected byte[] fetch(URL url, String authorization) throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        if (authorization != null) {
+            // sent preemptively, without waiting for a challenge
+            conn.setRequestProperty("Authorization", authorization);
+        }
+        if (conn instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) conn;
+            int status = http.getResponseCode();
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // read the error so the connection can be reused
+                try (InputStream error = http.getErrorStream()) {
+                    if (error != null) {
+                        IOUtils.toByteArray(error);
+                    }
+                }
+                throw new HttpStatusException(url, status);
+            }
+        }
+        try (InputStream input = conn.getInputStream()) {
+            return IOUtils.toByteArray(input);
+        }
+    }
+
+    /**
+     * Only transient failures are retried: timeouts, refused or reset connections, server errors and too many requests.
+     * An unknown host, a malformed response or an SSL error fails at once.
+     */
+    protected boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).status;
+            return status >= HttpURLConnection.HTTP_INTERNAL_ERROR || status == 429;
+        }
+        return e instanceof SocketTimeoutException || e instanceof ConnectException || e instanceof SocketException;
+    }
+
+    protected void sleep(long delay) throws IOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading", e);
+        }
+    }
+
+    /**
+     * Stops the pool, pending downloads are cancelled.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    protected static class DefaultHolder {
+        static final HttpDownloader INSTANCE = new HttpDownloader();
+    }
+
+    public static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        protected final int status;
+
+        public HttpStatusException(URL url, int status) {
+            super("HTTP " + status + " on " + url);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+}
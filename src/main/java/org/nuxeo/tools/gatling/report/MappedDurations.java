@@ -0,0 +1,319 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.Closeable;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Exact response times stored outside of the heap, in segments of a temporary file mapped in memory, so the number of
+ * durations is only limited by the disk space. The file is shared by all the requests of a simulation, segments start
+ * small and double in size, so a request with a few values only maps a few pages.
+ * <p>
+ * Values are never sorted: min, max and sum are tracked while adding, percentiles and other ranked values are found
+ * with a radix selection. A first pass counts the values in at most 2^20 buckets between min and max, when the range
+ * of the values fits, each bucket holds a single value and the selection is done. Otherwise a second pass counts the
+ * values of the buckets holding the selected ranks, whatever the number of ranks. Percentiles are the same as
+ * {@link DurationArray}.
+ *
+ * @since 5.1
+ */
+public class MappedDurations implements Durations, Closeable {
+    protected static final int SEGMENT_SIZE = 1 << 24;
+
+    protected static final int MIN_SEGMENT_SIZE = 1 << 10;
+
+    // the first pass counts the values in at most 2^HIGH_BITS buckets
+    protected static final int HIGH_BITS = 20;
+
+    protected final int maxSegmentSize;
+
+    protected final SpillFile file;
+
+    protected final List<IntBuffer> segments = new ArrayList<>();
+
+    // the last segment, values are added at its position
+    protected IntBuffer current;
+
+    protected long size;
+
+    protected long min = Long.MAX_VALUE, max = Long.MIN_VALUE, sum;
+
+    protected long momentsSize = -1;
+
+    protected double stddev;
+
+    /**
+     * @param file the spill file of the simulation, closed by its owner
+     */
+    public MappedDurations(SpillFile file) {
+        this(file, SEGMENT_SIZE);
+    }
+
+    protected MappedDurations(SpillFile file, int maxSegmentSize) {
+        this.file = file;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    @Override
+    public void add(long duration) {
+        int value = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, duration));
+        if (current == null || !current.hasRemaining()) {
+            mapSegment();
+        }
+        current.put(value);
+        size++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+    }
+
+    protected void mapSegment() {
+        int segmentSize = current == null ? MIN_SEGMENT_SIZE : current.capacity() * 2;
+        current = file.map(Math.min(segmentSize, maxSegmentSize));
+        segments.add(current);
+    }
+
+    /**
+     * Adds the durations of another mapped instance, the other instance is closed.
+     */
+    @Override
+    public void merge(Durations other) {
+        if (!(other instanceof MappedDurations)) {
+            throw new IllegalArgumentException("Can not merge durations of type: " + other.getClass().getSimpleName());
+        }
+        MappedDurations mapped = (MappedDurations) other;
+        mapped.forEach(this::add);
+        mapped.close();
+    }
+
+    /**
+     * Passes all the values in insertion order.
+     */
+    protected void forEach(IntConsumer consumer) {
+        long remaining = size;
+        for (IntBuffer segment : segments) {
+            int count = (int) Math.min(segment.capacity(), remaining);
+            for (int i = 0; i < count; i++) {
+                consumer.accept(segment.get(i));
+            }
+            remaining -= count;
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long getMin() {
+        return size == 0 ? 0 : min;
+    }
+
+    @Override
+    public long getMax() {
+        return size == 0 ? 0 : max;
+    }
+
+    @Override
+    public double getMean() {
+        return (double) sum / size;
+    }
+
+    /**
+     * The bias corrected standard deviation computed in two passes, same as {@link DurationArray}.
+     */
+    @Override
+    public double getStdDev() {
+        if (momentsSize == size) {
+            return stddev;
+        }
+        momentsSize = size;
+        if (size <= 1) {
+            stddev = size == 0 ? Double.NaN : 0.0;
+            return stddev;
+        }
+        double mean = getMean();
+        double[] accum = new double[2];
+        forEach(value -> {
+            double dev = value - mean;
+            accum[0] += dev * dev;
+            accum[1] += dev;
+        });
+        stddev = Math.sqrt((accum[0] - (accum[1] * accum[1] / size)) / (size - 1));
+        return stddev;
+    }
+
+    @Override
+    public double getPercentile(double p) {
+        return getPercentiles(new double[] { p })[0];
+    }
+
+    /**
+     * All the percentiles are selected with the same two passes over the values.
+     */
+    @Override
+    public double[] getPercentiles(double[] percentiles) {
+        double[] ret = new double[percentiles.length];
+        if (size == 0) {
+            Arrays.fill(ret, Double.NaN);
+            return ret;
+        }
+        // ranks of the lower and upper values of each percentile
+        long[] ranks = new long[percentiles.length * 2];
+        double[] difs = new double[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            double pos = percentiles[i] * (size + 1) / 100;
+            double fpos = Math.floor(pos);
+            if (size == 1 || pos < 1) {
+                ranks[2 * i] = ranks[2 * i + 1] = 0;
+            } else if (pos >= size) {
+                ranks[2 * i] = ranks[2 * i + 1] = size - 1;
+            } else {
+                ranks[2 * i] = (long) fpos - 1;
+                ranks[2 * i + 1] = (long) fpos;
+                difs[i] = pos - fpos;
+            }
+        }
+        long[] values = select(ranks);
+        for (int i = 0; i < percentiles.length; i++) {
+            double lower = values[2 * i];
+            double upper = values[2 * i + 1];
+            ret[i] = lower + difs[i] * (upper - lower);
+        }
+        return ret;
+    }
+
+    @Override
+    public long ceiling(double value) {
+        long[] below = new long[1];
+        forEach(v -> {
+            if (v < value) {
+                below[0]++;
+            }
+        });
+        return below[0] < size ? select(below)[0] : getMax();
+    }
+
+    @Override
+    public long floor(double value) {
+        long[] count = new long[1];
+        forEach(v -> {
+            if (v <= value) {
+                count[0]++;
+            }
+        });
+        if (count[0] == 0) {
+            return getMin();
+        }
+        count[0]--;
+        return select(count)[0];
+    }
+
+    @Override
+    public long[] getSample(int sampleSize) {
+        int count = (int) Math.min(size, sampleSize);
+        long[] ranks = new long[count];
+        for (int i = 0; i < count; i++) {
+            ranks[i] = count == 1 ? 0 : Math.round((double) i * (size - 1) / (count - 1));
+        }
+        return select(ranks);
+    }
+
+    /**
+     * Returns the values that would be at these indexes if the values were sorted.
+     */
+    protected long[] select(long[] ranks) {
+        long[] ret = new long[ranks.length];
+        if (ranks.length == 0) {
+            return ret;
+        }
+        // first pass: count the values by bucket, the range is split in at most 2^HIGH_BITS buckets
+        long range = max - min;
+        int shift = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(range) - HIGH_BITS);
+        int bucketCount = (int) (range >>> shift) + 1;
+        // before[b] is the number of values in the buckets lower than b
+        long[] before = new long[bucketCount + 1];
+        forEach(value -> before[(int) ((value - min) >>> shift) + 1]++);
+        for (int b = 0; b < bucketCount; b++) {
+            before[b + 1] += before[b];
+        }
+        int[] bucketOf = new int[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            // first bucket whose values end after the rank
+            int lo = 0, hi = bucketCount - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (before[mid + 1] <= ranks[i]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            bucketOf[i] = lo;
+            ret[i] = min + ((long) lo << shift);
+        }
+        if (shift == 0) {
+            // a bucket holds a single value
+            return ret;
+        }
+        // second pass: count the values of the selected buckets, each one covers 2^shift values, at most 4096 for
+        // values spanning the whole int range
+        int[] slotOf = new int[bucketCount];
+        int slots = 0;
+        for (int bucket : bucketOf) {
+            if (slotOf[bucket] == 0) {
+                slotOf[bucket] = ++slots;
+            }
+        }
+        long[][] low = new long[slots][1 << shift];
+        long mask = (1L << shift) - 1;
+        forEach(value -> {
+            long key = value - min;
+            int slot = slotOf[(int) (key >>> shift)];
+            if (slot > 0) {
+                low[slot - 1][(int) (key & mask)]++;
+            }
+        });
+        for (int i = 0; i < ranks.length; i++) {
+            long rank = ranks[i] - before[bucketOf[i]];
+            long[] counts = low[slotOf[bucketOf[i]] - 1];
+            int l = 0;
+            while (rank >= counts[l]) {
+                rank -= counts[l];
+                l++;
+            }
+            ret[i] += l;
+        }
+        return ret;
+    }
+
+    /**
+     * Drops the mapped segments, the regions of the spill file are reclaimed when the file is closed.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+        current = null;
+        size = 0;
+    }
+}
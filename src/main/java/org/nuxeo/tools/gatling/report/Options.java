@@ -16,15 +16,20 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.internal.Lists;
 
 public class Options {
-    @Parameter(required = true, description = "SIMULATION.LOG...")
+    @Parameter(description = "SIMULATION.LOG...")
     public List<String> simulations = Lists.newArrayList();
 
     @Parameter(names = { "--output-dir",
@@ -38,6 +43,10 @@ public class Options {
     @Parameter(names = { "--yaml", "-y" }, description = "Create a YAML report instead of an HTML report.")
     public boolean yaml = false;
 
+    @Parameter(names = { "--gzip",
+            "-z" }, description = "Write a gzip compressed report, ex: index.html.gz for static hosting.")
+    public boolean gzip = false;
+
     @Parameter(names = { "--force", "-f" }, description = "Override an existing report.")
     public boolean force = false;
 
@@ -61,17 +70,154 @@ public class Options {
     @Parameter(names = { "--password", "-p" }, description = "Graphite basic authentication password.")
     public String password;
 
+    @Parameter(names = {
+            "--graphite-parallelism" }, description = "Maximum number of Graphite images downloaded concurrently.")
+    public int graphiteParallelism = HttpDownloader.DEFAULT_PARALLELISM;
+
+    @Parameter(names = {
+            "--graphite-timeout" }, description = "Graphite connect and read timeout in seconds.")
+    public int graphiteTimeout = (int) MILLISECONDS.toSeconds(HttpDownloader.DEFAULT_TIMEOUT);
+
+    @Parameter(names = {
+            "--graphite-retries" }, description = "Number of retries of a failed Graphite download.")
+    public int graphiteRetries = HttpDownloader.DEFAULT_RETRIES;
+
+    @Parameter(names = {
+            "--graphite-cache" }, description = "Keep the Graphite dashboards and images in this directory, a report "
+                    + "generated again for the same simulations does not download them again.")
+    public String graphiteCache;
+
+    @Parameter(names = {
+            "--graphite-cache-size" }, description = "Maximum size of the Graphite cache in MB, the least recently used "
+                    + "files are removed above.")
+    public long graphiteCacheSize = DownloadCache.DEFAULT_MAX_SIZE >> 20;
+
     @Parameter(names = { "--apdex-threshold",
             "-T" }, description = "Apdex thresold, the response time in second above which the request switch from satisfying"
                     + " to tolerable.")
     public Float apdexT = 1.5f;
 
+    @Parameter(names = {
+            "--histogram" }, description = "Record response times into a fixed size histogram to limit memory usage, "
+                    + "percentiles become approximations.")
+    public boolean histogram = false;
+
+    @Parameter(names = {
+            "--histogram-precision" }, description = "Number of significant digits kept by the histogram, from 1 to 5.")
+    public int histogramPrecision = DurationHistogram.DEFAULT_PRECISION;
+
+    @Parameter(names = {
+            "--percentiles" }, description = "Comma separated list of percentiles to report in addition to p50, p90, p95 "
+                    + "and p99, ex: 99.9,99.99")
+    public List<String> percentiles = new ArrayList<>();
+
+    @Parameter(names = { "--parallelism",
+            "-P" }, description = "Maximum number of simulation files parsed concurrently, default to the number of cores.")
+    public int parallelism = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = { "--split",
+            "-s" }, description = "Split each uncompressed simulation file into chunks parsed concurrently by this number "
+                    + "of threads.")
+    public int split = 1;
+
+    @Parameter(names = {
+            "--compact" }, description = "Embed the box plot samples of the HTML report as base64 encoded Float32 "
+                    + "arrays to reduce its size.")
+    public boolean compact = false;
+
+    @Parameter(names = { "--cache",
+            "-c" }, description = "Keep a binary summary of each parsed simulation next to it as a .gstat file, "
+                    + "loaded instead of parsing the simulation again while it is unchanged.")
+    public boolean cache = false;
+
+    @Parameter(names = {
+            "--spill-dir" }, description = "Keep exact response times in a memory mapped file per simulation created in this directory "
+                    + "instead of the heap, for simulations too large to fit in memory.")
+    public String spillDirectory;
+
+    @Parameter(names = { "--window",
+            "-w" }, description = "Chart the throughput and p95 over time using windows of this number of seconds, "
+                    + "windows are enlarged to keep at most 1024 of them.")
+    public int window = 0;
+
+    @Parameter(names = {
+            "--merge" }, description = "Merge the simulations run at the same time by multiple injectors into a single "
+                    + "simulation report.")
+    public boolean merge = false;
+
+    @Parameter(names = {
+            "--follow" }, description = "Follow a single uncompressed simulation file while it is written, the report "
+                    + "is rendered every --follow-interval seconds until interrupted.")
+    public boolean follow = false;
+
+    @Parameter(names = {
+            "--follow-interval" }, description = "Number of seconds between two renderings of a followed simulation.")
+    public int followInterval = 60;
+
+    @Parameter(names = {
+            "--follow-timeout" }, description = "Stop following the simulation when it is not written during this "
+                    + "number of seconds, 0 to follow until interrupted.")
+    public int followTimeout = 0;
+
+    @Parameter(names = {
+            "--serve" }, description = "Serve the reports of simulations on this port of the loopback interface instead "
+                    + "of rendering them, ex: /report?simulation=/path/to/simulation.log")
+    public Integer servePort;
+
+    @Parameter(names = {
+            "--serve-threads" }, description = "Number of HTTP requests handled concurrently by the server.")
+    public int serveThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {
+            "--serve-cache" }, description = "Number of parsed simulations kept in memory by the server.")
+    public int serveCache = ReportServer.DEFAULT_CACHE_SIZE;
+
+    @Parameter(names = {
+            "--serve-max-upload" }, description = "Maximum size in MB of a simulation uploaded to the server.")
+    public long serveMaxUpload = ReportServer.DEFAULT_MAX_UPLOAD_SIZE >> 20;
+
     @Parameter(names = { "--help", "-h" }, description = "Display this message.", help = true)
     public boolean help;
 
     @Parameter(names = { "--timezone" }, description = "Graphite time zone if different from Gatling, ex: Europe/Paris")
     protected String timeZoneString;
 
+    public File getSpillDirectory() {
+        return spillDirectory == null ? null : new File(spillDirectory);
+    }
+
+    public DownloadCache getGraphiteCache() {
+        if (graphiteCache == null) {
+            return null;
+        }
+        return new DownloadCache(new File(graphiteCache), graphiteCacheSize << 20);
+    }
+
+    public int getGraphiteTimeout() {
+        return (int) SECONDS.toMillis(graphiteTimeout);
+    }
+
+    public long getWindow() {
+        return SECONDS.toMillis(window);
+    }
+
+    public Integer getHistogramPrecision() {
+        if (!histogram) {
+            return null;
+        }
+        return histogramPrecision;
+    }
+
+    public double[] getExtraPercentiles() {
+        return percentiles.stream().mapToDouble(p -> {
+            double value = Double.parseDouble(p);
+            if (value <= 0 || value > 100) {
+                throw new IllegalArgumentException("Invalid percentile: " + p);
+            }
+            return value;
+        }).filter(p -> Arrays.binarySearch(RequestStat.DEFAULT_PERCENTILES, p) < 0).distinct().sorted().toArray();
+    }
+
     public ZoneId getZoneId() {
         if (timeZoneString == null) {
             return null;
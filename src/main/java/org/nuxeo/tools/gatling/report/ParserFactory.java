@@ -16,49 +16,106 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
 
 public class ParserFactory {
 
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    protected static final int MAX_HEADER_SIZE = 1024 * 1024;
+
+    protected static final List<SimulationFormat> FORMATS = new CopyOnWriteArrayList<>();
+
+    static {
+        register(version(6, "2\\..*"), SimulationParserV2::new);
+        register(version(7, "2\\..*"), SimulationParserV23::new);
+        register(version(6, "3\\.0.*"), SimulationParserV3::new);
+        register(version(6, "3\\.[2-3].*"), SimulationParserV32::new);
+        register(version(6, "3\\.4.*"), SimulationParserV34::new);
+    }
+
+    /**
+     * Registers a simulation format, formats registered last are tried first so a built-in format can be overridden.
+     */
+    public static void register(SimulationFormat format) {
+        FORMATS.add(0, format);
+    }
+
+    public static void register(Predicate<SimulationLine> accept, BiFunction<File, Float, SimulationParser> parser) {
+        register(new SimulationFormat() {
+            @Override
+            public boolean accept(SimulationLine header) {
+                return accept.test(header);
+            }
+
+            @Override
+            public SimulationParser newParser(File file, Float apdexT) {
+                return parser.apply(file, apdexT);
+            }
+        });
+    }
+
+    /**
+     * Matches a header with the given number of fields, the last one being the Gatling version.
+     */
+    protected static Predicate<SimulationLine> version(int size, String regex) {
+        return header -> header.size() == size && header.get(size - 1).matches(regex);
+    }
+
+    /**
+     * Returns the parser of the simulation format. The file stays open and is read from the parser, for a compressed
+     * file a read ahead thread is started: the resources are released by {@link SimulationParser#parse()}, a parser
+     * that is not used must be closed.
+     */
     public static SimulationParser getParser(File file, Float apdexT) throws IOException {
         return getVersionSpecificParser(file, apdexT);
     }
 
+    /**
+     * @see #getParser(File, Float)
+     */
     public static SimulationParser getParser(File file) throws IOException {
         return getVersionSpecificParser(file, null);
     }
 
+    /**
+     * The header is read from the stream that is then handed over to the parser, so the file is opened and
+     * decompressed only once.
+     */
     protected static SimulationParser getVersionSpecificParser(File file, Float apdexT) throws IOException {
-        List<String> header = getHeaderLine(file);
-        if (header.size() == 6) {
-            String version = header.get(5);
-            if (version.matches("3\\.[2-3].*")) {
-                return new SimulationParserV32(file, apdexT);
-            }
-            if (version.startsWith("3.4")) {
-                return new SimulationParserV34(file, apdexT);
-            }
-            if (version.startsWith("3.0")) {
-                return new SimulationParserV3(file, apdexT);
-            }
-            if (version.startsWith("2.")) {
-                return new SimulationParserV2(file, apdexT);
-            }
-        } else if (header.size() == 7) {
-            String version = header.get(6);
-            if (version.startsWith("2.")) {
-                return new SimulationParserV23(file, apdexT);
+        InputStream input = new BufferedInputStream(Utils.getInputStreamFor(file), BUFFER_SIZE);
+        try {
+            SimulationLine header = peekHeaderLine(input);
+            if (header != null) {
+                for (SimulationFormat format : FORMATS) {
+                    if (format.accept(header)) {
+                        return format.newParser(file, apdexT).setInputStream(input);
+                    }
+                }
             }
+            throw new IllegalArgumentException("Unknown Gatling simulation version: " + header);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
         }
-        throw new IllegalArgumentException("Unknown Gatling simulation version: " + header);
     }
 
-    protected static List<String> getHeaderLine(File file) throws IOException {
-        try (SimulationReader reader = new SimulationReader(file)) {
-            return reader.readNext();
-        }
+    /**
+     * Reads the header line and resets the stream to its beginning.
+     */
+    protected static SimulationLine peekHeaderLine(InputStream input) throws IOException {
+        input.mark(MAX_HEADER_SIZE);
+        // not closed, the stream is reused
+        SimulationLine ret = new SimulationReader(input).readNext();
+        input.reset();
+        return ret;
     }
 
 }
@@ -0,0 +1,194 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the source stream on a background thread into a bounded ring of buffers, so that an expensive source like a
+ * gzip stream is decompressed while the consumer parses the previous buffers.
+ *
+ * @since 5.1
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    protected static final Block END = new Block(new byte[0], 0, null);
+
+    protected final InputStream source;
+
+    protected final BlockingQueue<byte[]> free;
+
+    protected final BlockingQueue<Block> filled;
+
+    protected final Thread thread;
+
+    protected volatile boolean closed;
+
+    protected Block current;
+
+    protected int pos;
+
+    public ReadAheadInputStream(InputStream source) {
+        this(source, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    public ReadAheadInputStream(InputStream source, int bufferSize, int bufferCount) {
+        if (bufferSize < 1 || bufferCount < 2) {
+            throw new IllegalArgumentException("Invalid read ahead buffers: " + bufferCount + " x " + bufferSize);
+        }
+        this.source = source;
+        free = new ArrayBlockingQueue<>(bufferCount);
+        // one more slot for the end or error marker
+        filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new byte[bufferSize]);
+        }
+        thread = new Thread(this::readAhead, "read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    protected void readAhead() {
+        try {
+            while (!closed) {
+                byte[] buffer = free.take();
+                int length = fill(buffer);
+                if (length > 0) {
+                    filled.put(new Block(buffer, length, null));
+                }
+                if (length < buffer.length) {
+                    filled.put(END);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            filled.offer(new Block(null, 0, e));
+        } catch (RuntimeException e) {
+            filled.offer(new Block(null, 0, new IOException(e)));
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the source is reached.
+     */
+    protected int fill(byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length) {
+            int read = source.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Returns false at the end of the stream.
+     */
+    protected boolean nextBlock() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current == END) {
+            return false;
+        }
+        if (current != null) {
+            free.add(current.buffer);
+        }
+        try {
+            current = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        pos = 0;
+        if (current.error != null) {
+            IOException error = current.error;
+            current = END;
+            throw error;
+        }
+        return current != END;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ((current == null || pos == current.length) && !nextBlock()) {
+            return -1;
+        }
+        return current.buffer[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if ((current == null || pos == current.length) && !nextBlock()) {
+            return -1;
+        }
+        int ret = Math.min(len, current.length - pos);
+        System.arraycopy(current.buffer, pos, bytes, off, ret);
+        pos += ret;
+        return ret;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        try {
+            // the source is not thread-safe, wait for a pending read to complete before closing it
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+
+    protected static class Block {
+        protected final byte[] buffer;
+
+        protected final int length;
+
+        protected final IOException error;
+
+        protected Block(byte[] buffer, int length, IOException error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+}
@@ -16,23 +16,25 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URL;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.FileUtils;
 
-import com.github.mustachejava.DefaultMustacheFactory;
 import com.github.mustachejava.Mustache;
-import com.github.mustachejava.MustacheFactory;
 
 public class Report {
     protected static final String YAML = "yaml/";
@@ -41,6 +43,10 @@ public class Report {
 
     protected static final String DEFAULT_FILENAME = "index.html";
 
+    protected static final String GZ_SUFFIX = ".gz";
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
     protected static final String SIMULATION_TEMPLATE = "simulation.mustache";
 
     protected static final String TREND_TEMPLATE = "trend.mustache";
@@ -57,6 +63,11 @@ public class Report {
 
     protected Writer writer;
 
+    // true when the writer is opened by the report and must be closed once rendered
+    protected boolean closeWriter;
+
+    protected boolean gzip = false;
+
     protected final List<String> scripts = new ArrayList<>();
 
     protected boolean includeJs = false;
@@ -65,7 +76,7 @@ public class Report {
 
     protected String graphiteUrl, user, password;
 
-    protected Graphite graphite;
+    protected HttpDownloader downloader;
 
     protected ZoneId zoneId;
 
@@ -75,6 +86,8 @@ public class Report {
 
     protected String filename = DEFAULT_FILENAME;
 
+    protected boolean compactBoxPlot = false;
+
     public Report(List<SimulationContext> stats) {
         this.stats = stats;
     }
@@ -101,19 +114,35 @@ public class Report {
 
     public String create() throws IOException {
         int nbSimulation = stats.size();
+        stats.forEach(stat -> stat.setCompactBoxPlot(compactBoxPlot));
         if (graphiteUrl != null) {
-            stats.forEach(stats -> stats.simStat.graphite = new Graphite(graphiteUrl, user, password, stats,
-                    outputDirectory, zoneId));
+            HttpDownloader downloader = getDownloader();
+            // dashboards may already be loaded while parsing
+            stats.stream()
+                 .filter(stats -> stats.simStat.graphite == null)
+                 .forEach(stats -> stats.simStat.graphite = new Graphite(graphiteUrl, user, password, stats,
+                         outputDirectory, zoneId, downloader));
         }
-        switch (nbSimulation) {
-        case 1:
-            createSimulationReport();
-            break;
-        case 2:
-            createDiffReport();
-            break;
-        default:
-            createTrendReport();
+        stats.stream()
+             .filter(stats -> stats.simStat.graphite != null)
+             .forEach(stats -> stats.simStat.graphite.waitForImages());
+        try {
+            switch (nbSimulation) {
+            case 1:
+                createSimulationReport();
+                break;
+            case 2:
+                createDiffReport();
+                break;
+            default:
+                createTrendReport();
+            }
+        } finally {
+            if (closeWriter) {
+                writer.close();
+                writer = null;
+                closeWriter = false;
+            }
         }
         return getReportPath().getAbsolutePath();
     }
@@ -123,15 +152,11 @@ public class Report {
         mustache.execute(getWriter(), stats.get(0).setScripts(getScripts())).flush();
     }
 
-    protected Mustache getMustache() throws FileNotFoundException {
-        MustacheFactory mf = new DefaultMustacheFactory();
-        Mustache mustache;
+    protected Mustache getMustache() throws IOException {
         if (template == null) {
-            mustache = mf.compile(getDefaultTemplate());
-        } else {
-            mustache = mf.compile(new FileReader(new File(template)), template);
+            return TemplateCache.getInstance().getBuiltin(getDefaultTemplate());
         }
-        return mustache;
+        return TemplateCache.getInstance().get(new File(template));
     }
 
     public void createTrendReport() throws IOException {
@@ -165,10 +190,18 @@ public class Report {
 
     }
 
+    /**
+     * Returns a buffered UTF-8 writer on the report file, compressed when gzip is enabled. The template output is
+     * streamed to it while rendering.
+     */
     public Writer getWriter() throws IOException {
         if (writer == null) {
-            File index = getReportPath();
-            writer = new FileWriter(index);
+            OutputStream output = new FileOutputStream(getReportPath());
+            if (gzip) {
+                output = new GZIPOutputStream(output, BUFFER_SIZE);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8), BUFFER_SIZE);
+            closeWriter = true;
         }
         return writer;
     }
@@ -179,6 +212,9 @@ public class Report {
     }
 
     public File getReportPath() {
+        if (gzip && !filename.endsWith(GZ_SUFFIX)) {
+            return new File(outputDirectory, filename + GZ_SUFFIX);
+        }
         return new File(outputDirectory, filename);
     }
 
@@ -223,6 +259,18 @@ public class Report {
         return this;
     }
 
+    /**
+     * Sets the downloader of the Graphite dashboards, default to a shared one.
+     */
+    public Report setDownloader(HttpDownloader downloader) {
+        this.downloader = downloader;
+        return this;
+    }
+
+    protected HttpDownloader getDownloader() {
+        return downloader == null ? HttpDownloader.getDefault() : downloader;
+    }
+
     public Report yamlReport(boolean yaml) {
         this.yaml = yaml;
         return this;
@@ -233,6 +281,22 @@ public class Report {
         return this;
     }
 
+    /**
+     * Writes a gzip compressed report, a {@code .gz} suffix is added to the file name.
+     */
+    public Report gzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * Encodes the box plot samples as base64 Float32 arrays.
+     */
+    public Report compactBoxPlot(boolean compact) {
+        this.compactBoxPlot = compact;
+        return this;
+    }
+
     public Report setFilename(String filename) {
         if (filename != null) {
             this.filename = filename;
@@ -0,0 +1,386 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves reports over HTTP from a long running process, so the JVM start and warm up are paid once. Simulations are
+ * either paths on the server, given by the {@code simulation} query parameters, or the body of a POST request:
+ * <ul>
+ * <li>{@code /csv?simulation=PATH...} returns the CSV stats</li>
+ * <li>{@code /report?simulation=PATH...} returns the simulation, diff or trend report</li>
+ * </ul>
+ * The server only listens on the loopback interface. Requests are handled by a fixed pool of threads and the
+ * simulations read from a path are kept in a LRU cache, a simulation is parsed again when its file changes. The parsing
+ * and rendering options are the ones of the command line.
+ * <p>
+ * A report is rendered in memory before its status is sent, uploads are limited in size.
+ *
+ * @since 5.1
+ */
+public class ReportServer implements Closeable {
+    private final static Logger log = Logger.getLogger(ReportServer.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    public static final long DEFAULT_MAX_UPLOAD_SIZE = 1024L << 20;
+
+    protected static final String SIMULATION_PARAM = "simulation";
+
+    protected static final byte[] GZIP_MAGIC = { (byte) 0x1f, (byte) 0x8b };
+
+    protected final App app;
+
+    protected final HttpServer server;
+
+    protected final ExecutorService executor;
+
+    // parsed simulations by path, size and modification time, in access order
+    protected final Map<String, CachedSimulation> cache;
+
+    protected long maxUploadSize = DEFAULT_MAX_UPLOAD_SIZE;
+
+    /**
+     * @param port the port to listen on, 0 for any free port
+     * @param threads the number of requests handled concurrently
+     * @param cacheSize the maximum number of parsed simulations kept in memory
+     */
+    public ReportServer(App app, int port, int threads, int cacheSize) throws IOException {
+        this.app = app;
+        cache = new LinkedHashMap<String, CachedSimulation>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSimulation> eldest) {
+                if (size() > cacheSize) {
+                    eldest.getValue().release();
+                    return true;
+                }
+                return false;
+            }
+        };
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        server.setExecutor(executor);
+        server.createContext("/csv", exchange -> handle(exchange, "text/plain", this::renderAsCsv));
+        server.createContext("/report", exchange -> handle(exchange, getReportContentType(), this::renderAsReport));
+    }
+
+    /**
+     * Sets the maximum size in bytes of an uploaded simulation, larger uploads are rejected with a 413 status.
+     */
+    public ReportServer setMaxUploadSize(long maxUploadSize) {
+        this.maxUploadSize = maxUploadSize;
+        return this;
+    }
+
+    public ReportServer start() {
+        server.start();
+        log.info("Serving reports on http://localhost:" + getPort() + "/");
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    protected void handle(HttpExchange exchange, String contentType, Renderer renderer) throws IOException {
+        final long startTime = System.currentTimeMillis();
+        List<File> uploads = new ArrayList<>();
+        List<CachedSimulation> used = new ArrayList<>();
+        try {
+            List<SimulationContext> stats;
+            try {
+                stats = getSimulations(exchange, uploads, used);
+            } catch (FileNotFoundException e) {
+                sendError(exchange, 404, e.getMessage());
+                return;
+            } catch (UploadTooLargeException e) {
+                sendError(exchange, 413, e.getMessage());
+                return;
+            } catch (IllegalArgumentException | IOException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            } catch (RuntimeException e) {
+                log.error("Can not parse simulations of " + exchange.getRequestURI(), e);
+                sendError(exchange, 500, e.getMessage());
+                return;
+            }
+            // rendered before sending the status, so a rendering failure is reported as an error
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(body, UTF_8))) {
+                renderer.render(stats, writer);
+            } catch (IOException | RuntimeException e) {
+                log.error("Can not render " + exchange.getRequestURI(), e);
+                sendError(exchange, 500, e.getMessage());
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream output = exchange.getResponseBody()) {
+                body.writeTo(output);
+            }
+            log.info("Served " + exchange.getRequestURI() + " in " + (System.currentTimeMillis() - startTime)
+                    + " ms.");
+        } catch (IOException e) {
+            log.error("Can not send response of " + exchange.getRequestURI(), e);
+        } finally {
+            exchange.close();
+            uploads.forEach(this::deleteUpload);
+            synchronized (cache) {
+                used.forEach(CachedSimulation::release);
+            }
+        }
+    }
+
+    /**
+     * Returns the simulations of the request, the ones that are used are added to {@code used} and must be released
+     * once rendered.
+     */
+    protected List<SimulationContext> getSimulations(HttpExchange exchange, List<File> uploads,
+            List<CachedSimulation> used) throws IOException {
+        String method = exchange.getRequestMethod();
+        List<SimulationContext> ret = new ArrayList<>();
+        if ("POST".equals(method)) {
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && Long.parseLong(length) > maxUploadSize) {
+                throw new UploadTooLargeException(maxUploadSize);
+            }
+            File upload = saveUpload(exchange.getRequestBody());
+            uploads.add(upload);
+            CachedSimulation simulation = new CachedSimulation();
+            used.add(simulation);
+            simulation.future.complete(parse(upload));
+            ret.add(simulation.future.join());
+        } else if (!"GET".equals(method)) {
+            throw new IllegalArgumentException("Unsupported method: " + method);
+        }
+        for (String path : getParameters(exchange.getRequestURI().getRawQuery(), SIMULATION_PARAM)) {
+            ret.add(getSimulation(new File(path), used));
+        }
+        if (ret.isEmpty()) {
+            throw new IllegalArgumentException("Missing simulation parameter or body");
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the parsed simulation from the cache, concurrent requests on the same file wait for a single parsing.
+     */
+    protected SimulationContext getSimulation(File file, List<CachedSimulation> used) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException("Simulation not found: " + file.getPath());
+        }
+        String key = file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+        CachedSimulation simulation;
+        boolean parsing = false;
+        synchronized (cache) {
+            simulation = cache.get(key);
+            if (simulation == null) {
+                simulation = new CachedSimulation();
+                cache.put(key, simulation);
+                parsing = true;
+            }
+            // the durations are kept until the request is done even if the simulation is evicted meanwhile
+            simulation.references++;
+            used.add(simulation);
+        }
+        CompletableFuture<SimulationContext> future = simulation.future;
+        if (parsing) {
+            SimulationContext context = null;
+            try {
+                context = parse(file);
+            } finally {
+                if (context == null) {
+                    synchronized (cache) {
+                        if (cache.remove(key, simulation)) {
+                            simulation.references--;
+                        }
+                    }
+                    future.completeExceptionally(new IOException("Invalid simulation: " + file.getPath()));
+                } else {
+                    future.complete(context);
+                }
+            }
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing: " + file.getPath(), e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    protected SimulationContext parse(File file) throws IOException {
+        // each simulation has its own names, so an evicted or uploaded simulation does not leave them in the server
+        SimulationContext ret = app.parseSimulationFile(file, new SymbolTable());
+        if (ret == null) {
+            throw new IOException("Invalid simulation: " + file.getPath());
+        }
+        return ret;
+    }
+
+    /**
+     * Saves an uploaded simulation to a temporary file, with a gz extension when compressed. The body is not trusted
+     * to match its Content-Length, the copy stops above the maximum upload size.
+     */
+    protected File saveUpload(InputStream body) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(body);
+        input.mark(GZIP_MAGIC.length);
+        boolean gzip = input.read() == (GZIP_MAGIC[0] & 0xff) && input.read() == (GZIP_MAGIC[1] & 0xff);
+        input.reset();
+        File ret = File.createTempFile("simulation", gzip ? ".log.gz" : ".log");
+        try (OutputStream output = new FileOutputStream(ret)) {
+            byte[] buffer = new byte[8192];
+            long size = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                size += read;
+                if (size > maxUploadSize) {
+                    throw new UploadTooLargeException(maxUploadSize);
+                }
+                output.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            ret.delete();
+            throw e;
+        }
+        return ret;
+    }
+
+    protected void deleteUpload(File upload) {
+        // a summary is written next to it when --cache is used
+        new File(upload.getPath() + SummaryCache.SUFFIX).delete();
+        if (!upload.delete()) {
+            upload.deleteOnExit();
+        }
+    }
+
+    protected void renderAsCsv(List<SimulationContext> stats, Writer writer) throws IOException {
+        writer.write(RequestStat.header(app.options.getExtraPercentiles()));
+        writer.write('\n');
+        for (SimulationContext stat : stats) {
+            writer.write(stat.toString());
+            writer.write('\n');
+        }
+    }
+
+    protected void renderAsReport(List<SimulationContext> stats, Writer writer) throws IOException {
+        Options options = app.options;
+        new Report(stats).setWriter(writer)
+                         .setTemplate(options.template)
+                         .yamlReport(options.yaml)
+                         .withMap(options.map)
+                         .compactBoxPlot(options.compact)
+                         .create();
+    }
+
+    protected String getReportContentType() {
+        return app.options.yaml ? "text/yaml" : "text/html";
+    }
+
+    protected void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = String.valueOf(message).getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    protected static List<String> getParameters(String query, String name) throws UnsupportedEncodingException {
+        List<String> ret = new ArrayList<>();
+        if (query == null) {
+            return ret;
+        }
+        for (String param : query.split("&")) {
+            int index = param.indexOf('=');
+            if (index > 0 && name.equals(URLDecoder.decode(param.substring(0, index), "UTF-8"))) {
+                ret.add(URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+            }
+        }
+        return ret;
+    }
+
+    protected static class UploadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        protected UploadTooLargeException(long maxUploadSize) {
+            super("Simulation upload exceeds the maximum size of " + maxUploadSize + " bytes");
+        }
+    }
+
+    protected interface Renderer {
+        void render(List<SimulationContext> stats, Writer writer) throws IOException;
+    }
+
+    /**
+     * A parsed simulation referenced by the cache and by the requests rendering it, its durations are released when
+     * it is no longer referenced. References are updated while holding the cache lock.
+     */
+    protected static class CachedSimulation {
+        protected final CompletableFuture<SimulationContext> future = new CompletableFuture<>();
+
+        protected int references = 1;
+
+        protected void release() {
+            if (--references == 0 && future.isDone() && !future.isCompletedExceptionally()) {
+                // temporary files of --spill-dir durations
+                future.join().releaseDurations();
+            }
+        }
+    }
+}
@@ -16,19 +16,22 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicInteger;
-
-import org.apache.commons.math3.stat.StatUtils;
-import org.apache.commons.math3.stat.descriptive.moment.StandardDeviation;
+import java.util.stream.DoubleStream;
 
 public class RequestStat {
-    public static final long MAX_BOXPOINT = 50000;
+    protected static final double[] DEFAULT_PERCENTILES = { 50.0, 90.0, 95.0, 99.0 };
 
     protected static final AtomicInteger statCounter = new AtomicInteger();
 
@@ -40,7 +43,8 @@ public class RequestStat {
 
     protected final String requestId;
 
-    protected final int indice;
+    // unique identifier of the stat in a report, see SimulationContext#renumber
+    protected int indice;
 
     protected String startDate;
 
@@ -52,9 +56,16 @@ public class RequestStat {
 
     protected double rps, avg;
 
+    protected double[] extraPercentiles = new double[0];
+
+    protected long[] extraValues = new long[0];
+
     protected double duration;
 
-    protected final List<Double> durations;
+    protected Durations durations;
+
+    // exact stats of a stat loaded from a summary, its durations are then a histogram
+    protected DurationSummary summary;
 
     protected Graphite graphite;
 
@@ -62,17 +73,40 @@ public class RequestStat {
 
     protected int maxUsers;
 
+    protected boolean compactBoxPlot;
+
+    protected TimeSeries series;
+
     public long getCount() {
         return count;
     }
 
     public RequestStat(String simulation, String scenario, String request, long start, Float apdexT) {
+        this(simulation, scenario, request, start, apdexT, new DurationArray());
+    }
+
+    /**
+     * @param histogramPrecision when not null record durations into a {@link DurationHistogram} with this number of
+     *            significant digits instead of keeping all of them
+     */
+    public RequestStat(String simulation, String scenario, String request, long start, Float apdexT,
+            Integer histogramPrecision) {
+        this(simulation, scenario, request, start, apdexT,
+                histogramPrecision == null ? new DurationArray() : new DurationHistogram(histogramPrecision));
+    }
+
+    /**
+     * @param durations where to record the response times
+     * @since 5.1
+     */
+    public RequestStat(String simulation, String scenario, String request, long start, Float apdexT,
+            Durations durations) {
         this.simulation = simulation;
         this.scenario = scenario;
         this.request = request;
         requestId = Utils.getIdentifier(request);
         this.start = start;
-        durations = new ArrayList<>();
+        this.durations = durations;
         indice = statCounter.incrementAndGet();
         apdex = new Apdex(apdexT);
     }
@@ -82,6 +116,28 @@ public class RequestStat {
                 + "errorCount\tmin\tp50\tp90\tp95\tp99\tmax\tavg\tstddev\trps\tapdex\trating";
     }
 
+    /**
+     * The header with a column for each extra percentile.
+     */
+    public static String header(double[] extraPercentiles) {
+        StringBuilder ret = new StringBuilder(header());
+        for (double p : extraPercentiles) {
+            ret.append('\t').append(getPercentileName(p));
+        }
+        return ret.toString();
+    }
+
+    protected static String getPercentileName(double p) {
+        return "p" + BigDecimal.valueOf(p).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Percentiles to compute in addition to p50, p90, p95 and p99, in ascending order.
+     */
+    public void setExtraPercentiles(double[] extraPercentiles) {
+        this.extraPercentiles = extraPercentiles;
+    }
+
     public void add(long start, long end, boolean success) {
         count += 1;
         if (this.start == 0) {
@@ -93,8 +149,56 @@ public class RequestStat {
             errorCount += 1;
         }
         long duration = end - start;
-        durations.add((double) duration);
+        durations.add(duration);
         apdex.addMs(duration);
+        if (series != null) {
+            series.add(end, duration, success);
+        }
+    }
+
+    /**
+     * Adds the requests recorded by another stat of the same request.
+     */
+    public void merge(RequestStat other) {
+        count += other.count;
+        errorCount += other.errorCount;
+        if (start == 0) {
+            start = other.start;
+        } else if (other.start != 0) {
+            start = Math.min(start, other.start);
+        }
+        end = Math.max(end, other.end);
+        // the exact stats of a loaded stat no longer apply, they are computed from the merged histograms
+        summary = null;
+        if (durations instanceof DurationArray && other.durations instanceof DurationHistogram) {
+            // the other stat is loaded from a summary, exact durations can only be merged into its histogram
+            DurationHistogram histogram = new DurationHistogram(((DurationHistogram) other.durations).precision);
+            histogram.merge(durations);
+            durations = histogram;
+        }
+        durations.merge(other.durations);
+        apdex.merge(other.apdex);
+        if (series != null && other.series != null) {
+            series.merge(other.series);
+        }
+    }
+
+    /**
+     * Releases the response times and the time series once the stats are computed, only the computed values are
+     * kept. The stats can not be computed again and the box plot is empty.
+     *
+     * @since 5.1
+     */
+    public void releaseDurations() {
+        if (durations instanceof Closeable) {
+            try {
+                ((Closeable) durations).close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        durations = new DurationArray();
+        series = null;
     }
 
     public void computeStat(int maxUsers) {
@@ -102,19 +206,18 @@ public class RequestStat {
     }
 
     public void computeStat(double duration, int maxUsers) {
-        double[] times = getDurationAsArray();
-        min = (long) StatUtils.min(times);
-        max = (long) StatUtils.max(times);
-        double sum = 0;
-        for (double d : times)
-            sum += d;
-        avg = sum / times.length;
-        p50 = (long) StatUtils.percentile(times, 50.0);
-        p90 = (long) StatUtils.percentile(times, 90.0);
-        p95 = (long) StatUtils.percentile(times, 95.0);
-        p99 = (long) StatUtils.percentile(times, 99.0);
-        StandardDeviation stdDev = new StandardDeviation();
-        stddev = (long) stdDev.evaluate(times, avg);
+        if (summary != null) {
+            min = summary.min;
+            max = summary.max;
+            avg = summary.mean;
+            stddev = (long) summary.stddev;
+        } else {
+            min = durations.getMin();
+            max = durations.getMax();
+            avg = durations.getMean();
+            stddev = (long) durations.getStdDev();
+        }
+        computePercentiles();
         this.duration = duration;
         this.maxUsers = maxUsers;
         rps = (count - errorCount) / duration;
@@ -122,6 +225,37 @@ public class RequestStat {
         successCount = count - errorCount;
     }
 
+    protected void computePercentiles() {
+        double[] percentiles = getPercentilesToCompute();
+        double[] values = summary != null ? summary.getPercentiles(percentiles) : durations.getPercentiles(percentiles);
+        p50 = (long) values[Arrays.binarySearch(percentiles, 50.0)];
+        p90 = (long) values[Arrays.binarySearch(percentiles, 90.0)];
+        p95 = (long) values[Arrays.binarySearch(percentiles, 95.0)];
+        p99 = (long) values[Arrays.binarySearch(percentiles, 99.0)];
+        extraValues = new long[extraPercentiles.length];
+        for (int i = 0; i < extraPercentiles.length; i++) {
+            extraValues[i] = (long) values[Arrays.binarySearch(percentiles, extraPercentiles[i])];
+        }
+    }
+
+    protected double[] getPercentilesToCompute() {
+        return DoubleStream.concat(Arrays.stream(DEFAULT_PERCENTILES), Arrays.stream(extraPercentiles))
+                           .distinct()
+                           .sorted()
+                           .toArray();
+    }
+
+    /**
+     * The extra percentiles with their values, available once stats are computed.
+     */
+    public List<Percentile> getPercentiles() {
+        List<Percentile> ret = new ArrayList<>(extraPercentiles.length);
+        for (int i = 0; i < extraValues.length; i++) {
+            ret.add(new Percentile(getPercentileName(extraPercentiles[i]), extraValues[i]));
+        }
+        return ret;
+    }
+
     public void setSimulationName(String name) {
         simulation = name;
     }
@@ -132,17 +266,48 @@ public class RequestStat {
 
     public void setStart(long start) {
         this.start = start;
+        if (series != null && series.size() == 0) {
+            series.setOrigin(start);
+        }
+    }
+
+    /**
+     * Buckets the requests by end time into windows of this number of milliseconds, 0 to disable.
+     */
+    public void setWindow(long window) {
+        series = window > 0 ? new TimeSeries(start, window) : null;
+    }
+
+    /**
+     * The throughput and latency over time, null if disabled.
+     */
+    public TimeSeries getSeries() {
+        return series;
     }
 
     public String average() {
         return String.format(Locale.ENGLISH, "%.1f", avg);
     }
 
-    public String boxpoints() {
-        if (count < MAX_BOXPOINT) {
-            return "'all'";
+    public void setCompactBoxPlot(boolean compact) {
+        compactBoxPlot = compact;
+    }
+
+    /**
+     * Box plot statistics with a bounded sample of the durations, as a javascript object.
+     */
+    public BoxPlot getBoxPlot() {
+        if (summary != null) {
+            return summary.getBoxPlot(avg, stddev, compactBoxPlot);
         }
-        return "false";
+        return new BoxPlot(durations, avg, stddev, compactBoxPlot);
+    }
+
+    /**
+     * The points of the box plot are drawn from its bounded sample, they can always be displayed.
+     */
+    public String boxpoints() {
+        return "'all'";
     }
 
     public String throughput() {
@@ -162,23 +327,30 @@ public class RequestStat {
         return formatter.format(Instant.ofEpochMilli(start));
     }
 
-    protected double[] getDurationAsArray() {
-        double[] ret = new double[durations.size()];
-        for (int i = 0; i < durations.size(); i++) {
-            ret[i] = durations.get(i);
-        }
-        return ret;
-    }
-
     public String getDuration() {
         return String.format(Locale.ENGLISH, "%.1f", duration);
     }
 
     @Override
     public String toString() {
-        return String.format(Locale.ENGLISH,
+        StringBuilder ret = new StringBuilder(String.format(Locale.ENGLISH,
                 "%s\t%s\t%s\t%s\t%s\t%s\t%.2f\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%.2f\t%s\t%.2f\t%.2f\t%s",
                 simulation, scenario, maxUsers, request, start, startDate, duration, end, count, successCount,
-                errorCount, min, p50, p90, p95, p99, max, avg, stddev, rps, apdex.getScore(), apdex.getRating());
+                errorCount, min, p50, p90, p95, p99, max, avg, stddev, rps, apdex.getScore(), apdex.getRating()));
+        for (long value : extraValues) {
+            ret.append('\t').append(value);
+        }
+        return ret.toString();
+    }
+
+    protected static class Percentile {
+        protected final String name;
+
+        protected final long value;
+
+        public Percentile(String name, long value) {
+            this.name = name;
+            this.value = value;
+        }
     }
 }
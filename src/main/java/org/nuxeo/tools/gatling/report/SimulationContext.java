@@ -18,7 +18,10 @@ package org.nuxeo.tools.gatling.report;
 
 import static java.lang.Math.max;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,12 +32,23 @@ public class SimulationContext {
 
     protected final Float apdexT;
 
+    protected final Integer histogramPrecision;
+
+    protected final SpillFile spillFile;
+
+    protected double[] extraPercentiles = new double[0];
+
     protected final String filePath;
 
     protected final RequestStat simStat;
 
     protected final Map<String, RequestStat> reqStats = new HashMap<>();
 
+    // reqStats indexed by request name id, only used to speed up parsing
+    protected RequestStat[] requestsById = new RequestStat[16];
+
+    protected SymbolTable symbols = new SymbolTable();
+
     protected final Map<String, CountMax> users = new HashMap<>();
 
     protected String simulationName;
@@ -47,10 +61,36 @@ public class SimulationContext {
 
     protected long start;
 
+    protected long window;
+
     public SimulationContext(String filePath, Float apdexT) {
+        this(filePath, apdexT, null);
+    }
+
+    public SimulationContext(String filePath, Float apdexT, Integer histogramPrecision) {
+        this(filePath, apdexT, histogramPrecision, (SpillFile) null);
+    }
+
+    /**
+     * @param spillDirectory when not null, exact durations are stored in a memory mapped file created in this
+     *            directory instead of the heap
+     * @since 5.1
+     */
+    public SimulationContext(String filePath, Float apdexT, Integer histogramPrecision, File spillDirectory) {
+        this(filePath, apdexT, histogramPrecision, spillDirectory == null ? null : new SpillFile(spillDirectory));
+    }
+
+    /**
+     * @param spillFile when not null, exact durations are stored in this memory mapped file instead of the heap, the
+     *            file can be shared by the partial contexts of a simulation
+     * @since 5.1
+     */
+    public SimulationContext(String filePath, Float apdexT, Integer histogramPrecision, SpillFile spillFile) {
         this.filePath = filePath;
-        this.simStat = new RequestStat(ALL_REQUESTS, ALL_REQUESTS, ALL_REQUESTS, 0, apdexT);
         this.apdexT = apdexT;
+        this.histogramPrecision = histogramPrecision;
+        this.spillFile = spillFile;
+        this.simStat = new RequestStat(ALL_REQUESTS, ALL_REQUESTS, ALL_REQUESTS, 0, apdexT, newDurations());
     }
 
     public String getSimulationName() {
@@ -73,12 +113,81 @@ public class SimulationContext {
     }
 
     public void addRequest(String scenario, String requestName, long start, long end, boolean success) {
-        RequestStat request = reqStats.computeIfAbsent(requestName,
-                n -> new RequestStat(simulationName, scenario, n, this.start, apdexT));
+        addRequest(scenario, symbols.getId(requestName), start, end, success);
+    }
+
+    /**
+     * Adds a request identified by the id of its name in the symbol table.
+     */
+    public void addRequest(String scenario, int requestId, long start, long end, boolean success) {
+        RequestStat request = requestId < requestsById.length ? requestsById[requestId] : null;
+        if (request == null) {
+            request = getRequestStat(scenario, requestId);
+        }
         request.add(start, end, success);
         simStat.add(start, end, success);
     }
 
+    protected RequestStat getRequestStat(String scenario, int requestId) {
+        RequestStat ret = reqStats.computeIfAbsent(symbols.getName(requestId), n -> newRequestStat(scenario, n));
+        if (requestId >= requestsById.length) {
+            requestsById = Arrays.copyOf(requestsById, Math.max(requestsById.length * 2, requestId + 1));
+        }
+        requestsById[requestId] = ret;
+        return ret;
+    }
+
+    /**
+     * Request ids are resolved with this symbol table, it must be the one used by the parser or share its ids.
+     */
+    public SimulationContext setSymbolTable(SymbolTable symbols) {
+        this.symbols = symbols;
+        return this;
+    }
+
+    protected RequestStat newRequestStat(String scenario, String requestName) {
+        RequestStat ret = new RequestStat(simulationName, scenario, requestName, start, apdexT, newDurations());
+        ret.setExtraPercentiles(extraPercentiles);
+        ret.setWindow(window);
+        return ret;
+    }
+
+    protected Durations newDurations() {
+        if (spillFile != null) {
+            return new MappedDurations(spillFile);
+        }
+        if (histogramPrecision != null) {
+            return new DurationHistogram(histogramPrecision);
+        }
+        return new DurationArray();
+    }
+
+    /**
+     * Buckets the requests by end time into windows of this number of milliseconds, 0 to disable.
+     */
+    public SimulationContext setWindow(long window) {
+        this.window = window;
+        simStat.setWindow(window);
+        reqStats.values().forEach(request -> request.setWindow(window));
+        return this;
+    }
+
+    /**
+     * Percentiles to compute in addition to p50, p90, p95 and p99, in ascending order.
+     */
+    public SimulationContext setExtraPercentiles(double[] extraPercentiles) {
+        this.extraPercentiles = extraPercentiles;
+        simStat.setExtraPercentiles(extraPercentiles);
+        reqStats.values().forEach(request -> request.setExtraPercentiles(extraPercentiles));
+        return this;
+    }
+
+    public SimulationContext setCompactBoxPlot(boolean compact) {
+        simStat.setCompactBoxPlot(compact);
+        reqStats.values().forEach(request -> request.setCompactBoxPlot(compact));
+        return this;
+    }
+
     public void computeStat() {
         maxUsers = users.values().stream().mapToInt(CountMax::getMax).sum();
         simStat.computeStat(maxUsers);
@@ -86,6 +195,40 @@ public class SimulationContext {
                 .forEach(request -> request.computeStat(simStat.duration, users.get(request.scenario).maximum));
     }
 
+    /**
+     * Numbers the simulation stat then the requests in their creation order, starting from {@code first}. Stats are
+     * numbered when created, by the thread that parses the simulation, numbering them again once parsed makes the
+     * reports independent of the thread scheduling.
+     *
+     * @return the next free number
+     * @since 5.1
+     */
+    public int renumber(int first) {
+        int ret = first;
+        simStat.indice = ret++;
+        List<RequestStat> requests = new ArrayList<>(reqStats.values());
+        requests.sort(Comparator.comparingInt(request -> request.indice));
+        for (RequestStat request : requests) {
+            request.indice = ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * Keeps only the computed stats of the requests, for reports that do not need the response times like the trend
+     * report, so a large number of simulations can be held in memory. The spill file of the simulation is closed.
+     *
+     * @since 5.1
+     */
+    public SimulationContext releaseDurations() {
+        simStat.releaseDurations();
+        reqStats.values().forEach(RequestStat::releaseDurations);
+        if (spillFile != null) {
+            spillFile.close();
+        }
+        return this;
+    }
+
     public void setScenarioName(String name) {
         this.scenarioName = name;
         simStat.setScenario(name);
@@ -113,27 +256,141 @@ public class SimulationContext {
     }
 
     public void addUser(String scenario) {
-        CountMax count = users.computeIfAbsent(scenario, k -> new CountMax());
-        count.incr();
+        addUser(scenario, start);
+    }
+
+    public void addUser(String scenario, long time) {
+        CountMax count = users.computeIfAbsent(scenario, CountMax::new);
+        count.incr(time);
     }
 
     public void endUser(String scenario) {
-        CountMax count = users.get(scenario);
-        if (count != null) {
-            count.decr();
+        endUser(scenario, start);
+    }
+
+    public void endUser(String scenario, long time) {
+        if (scenario == null) {
+            return;
         }
+        // when parsing a chunk the user may have started in a previous chunk
+        CountMax count = users.computeIfAbsent(scenario, CountMax::new);
+        count.decr(time);
+    }
+
+    /**
+     * The concurrent users over time of each scenario, empty if time series are disabled.
+     */
+    public List<CountMax> getUserSeries() {
+        return users.values()
+                    .stream()
+                    .filter(count -> count.series != null)
+                    .sorted(Comparator.comparing(count -> count.scenario))
+                    .collect(Collectors.toList());
+    }
+
+    /**
+     * Merges simulations run at the same time, for instance by multiple Gatling injectors, into a new context. Requests
+     * with the same name are merged, users of the same scenario are added.
+     *
+     * @since 5.1
+     */
+    public static SimulationContext merge(List<SimulationContext> simulations) {
+        SimulationContext first = simulations.get(0);
+        SimulationContext ret = new SimulationContext(first.filePath, first.apdexT, first.histogramPrecision,
+                first.spillFile == null ? null : new SpillFile(first.spillFile.directory));
+        ret.setExtraPercentiles(first.extraPercentiles);
+        ret.setWindow(first.window);
+        ret.setSimulationName(first.simulationName);
+        ret.setScenarioName(first.scenarioName);
+        ret.setStart(simulations.stream().mapToLong(simulation -> simulation.start).min().getAsLong());
+        simulations.forEach(ret::merge);
+        ret.computeStat();
+        return ret;
+    }
+
+    /**
+     * Adds the stats of a simulation run at the same time.
+     */
+    protected void merge(SimulationContext other) {
+        simStat.merge(other.simStat);
+        other.reqStats.forEach(
+                (name, request) -> reqStats.computeIfAbsent(name, n -> newRequestStat(request.scenario, n))
+                                           .merge(request));
+        other.users.forEach((scenario, count) -> users.computeIfAbsent(scenario, CountMax::new).merge(count));
+        Arrays.fill(requestsById, null);
+    }
+
+    /**
+     * Appends the stats of the next part of the same simulation file.
+     */
+    public void append(SimulationContext next) {
+        simStat.merge(next.simStat);
+        next.reqStats.forEach((name, request) -> {
+            RequestStat stat = reqStats.get(name);
+            if (stat == null) {
+                reqStats.put(name, request);
+            } else {
+                stat.merge(request);
+            }
+        });
+        next.users.forEach((scenario, count) -> users.computeIfAbsent(scenario, CountMax::new).append(count));
+        // new stats may come from the next part, the index is rebuilt on demand
+        Arrays.fill(requestsById, null);
     }
 
     class CountMax {
+        final String scenario;
+
+        final UserSeries series;
+
         int current = 0, maximum = 0;
 
-        public void incr() {
+        CountMax(String scenario) {
+            this.scenario = scenario;
+            series = window > 0 ? new UserSeries(start, window) : null;
+        }
+
+        public void incr(long time) {
             current += 1;
             maximum = max(current, maximum);
+            if (series != null) {
+                series.incr(time);
+            }
         }
 
-        public void decr() {
+        public void decr(long time) {
             current -= 1;
+            if (series != null) {
+                series.decr(time);
+            }
+        }
+
+        /**
+         * Appends the counts of the next part of the simulation, its maximum is relative to the current count.
+         */
+        public void append(CountMax next) {
+            maximum = max(maximum, current + next.maximum);
+            current += next.current;
+            if (series != null && next.series != null) {
+                series.append(next.series);
+            }
+        }
+
+        /**
+         * Adds the counts of a scenario run at the same time. The maximum is an upper bound: the sum of the maxima, or
+         * of the maxima of each window when series are recorded.
+         */
+        public void merge(CountMax other) {
+            current += other.current;
+            if (series != null && other.series != null) {
+                series.add(other.series);
+                maximum = 0;
+                for (int i = 0; i < series.size(); i++) {
+                    maximum = max(maximum, series.getUsers(i));
+                }
+            } else {
+                maximum += other.maximum;
+            }
         }
 
         public int getMax() {
@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Parses a simulation file while Gatling is writing it. Lines are added to the context as they are appended, reading
+ * waits for more data at the end of the file until the follower is closed or the file stops growing for the idle
+ * timeout.
+ * <p>
+ * The parsing thread holds a fair lock that it releases while waiting for data and between reads when another thread
+ * is waiting, so stats can be computed and rendered from another thread with {@link #snapshot(Consumer)}.
+ *
+ * @since 5.1
+ */
+public class SimulationFollower implements Runnable, Closeable {
+
+    public static final long DEFAULT_POLL_INTERVAL = 500;
+
+    protected final SimulationParser parser;
+
+    protected final SimulationContext context;
+
+    protected final ReentrantLock lock = new ReentrantLock(true);
+
+    protected final FollowInputStream input;
+
+    protected long idleTimeout;
+
+    protected volatile boolean stopped;
+
+    /**
+     * The parser must read an uncompressed file, the end of a compressed stream can not be followed.
+     */
+    public SimulationFollower(SimulationParser parser) throws IOException {
+        if (Utils.GZ.equals(Utils.getFileExtension(parser.file))) {
+            throw new IllegalArgumentException("Can not follow a compressed file: " + parser.file.getAbsolutePath());
+        }
+        this.parser = parser;
+        this.context = parser.newContext();
+        this.input = new FollowInputStream(parser.openInputStream(), DEFAULT_POLL_INTERVAL);
+    }
+
+    /**
+     * Stops following the file when no data is appended during this number of milliseconds, 0 to wait until closed.
+     */
+    public SimulationFollower setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    /**
+     * Parses the file until the follower is closed or the idle timeout is reached, then computes the final stats.
+     */
+    @Override
+    public void run() {
+        lock.lock();
+        try {
+            parser.parse(input, context);
+            context.computeStat();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not follow: " + parser.file.getAbsolutePath(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Computes the stats of the lines parsed so far and passes them to the consumer, parsing is paused meanwhile.
+     * Returns false if the header of the simulation has not been read yet.
+     */
+    public boolean snapshot(Consumer<SimulationContext> consumer) {
+        lock.lock();
+        try {
+            if (context.getSimulationName() == null) {
+                return false;
+            }
+            context.computeStat();
+            consumer.accept(context);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SimulationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Stops following the file, data already written is still parsed.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+    }
+
+    /**
+     * A stream that waits for more data at the end of the file, releasing the lock while waiting.
+     */
+    protected class FollowInputStream extends FilterInputStream {
+
+        protected final long pollInterval;
+
+        protected FollowInputStream(InputStream input, long pollInterval) {
+            super(input);
+            this.pollInterval = pollInterval;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            long idleSince = System.currentTimeMillis();
+            while (true) {
+                int read = in.read(buffer, off, len);
+                if (read > 0) {
+                    if (lock.hasQueuedThreads()) {
+                        // let a waiting snapshot go first
+                        lock.unlock();
+                        lock.lock();
+                    }
+                    return read;
+                }
+                if (read == 0 && len == 0) {
+                    return 0;
+                }
+                if (stopped || (idleTimeout > 0 && System.currentTimeMillis() - idleSince >= idleTimeout)) {
+                    return -1;
+                }
+                if (!waitForData()) {
+                    return -1;
+                }
+            }
+        }
+
+        protected boolean waitForData() {
+            lock.unlock();
+            try {
+                Thread.sleep(pollInterval);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.lock();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.File;
+
+/**
+ * A simulation log format, detected from the header line of the file, see {@link ParserFactory#register}.
+ *
+ * @since 5.1
+ */
+public interface SimulationFormat {
+
+    /**
+     * Returns true if the simulation with this header line can be parsed with this format.
+     */
+    boolean accept(SimulationLine header);
+
+    SimulationParser newParser(File file, Float apdexT);
+}
@@ -0,0 +1,198 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A tab separated line of a simulation file, fields are exposed as offsets in the reader buffer. The instance is reused
+ * by the {@link SimulationReader}, it is only valid until the next line is read.
+ *
+ * @since 5.1
+ */
+public class SimulationLine {
+    protected final SymbolTable symbols;
+
+    protected byte[] buffer;
+
+    protected int[] starts = new int[16];
+
+    protected int[] ends = new int[16];
+
+    protected int size;
+
+    public SimulationLine(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * Splits {@code buffer[start, end[} on tabs, fields are trimmed and a surrounding pair of double quotes is removed.
+     */
+    protected void parse(byte[] buffer, int start, int end) {
+        this.buffer = buffer;
+        size = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buffer[i] == '\t') {
+                addField(fieldStart, i);
+                fieldStart = i + 1;
+            }
+        }
+    }
+
+    protected void addField(int start, int end) {
+        while (start < end && (buffer[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        if (end - start >= 2 && buffer[start] == '"' && buffer[end - 1] == '"') {
+            start++;
+            end--;
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0 || (size == 1 && starts[0] == ends[0]);
+    }
+
+    /**
+     * Returns a new String with the field value.
+     */
+    public String get(int index) {
+        checkIndex(index);
+        return new String(buffer, starts[index], ends[index] - starts[index], UTF_8);
+    }
+
+    /**
+     * Returns the field value from the symbol table, no String is created for an already known value.
+     */
+    public String getSymbol(int index) {
+        return symbols.getName(getSymbolId(index));
+    }
+
+    /**
+     * Returns the id of the field value in the symbol table.
+     */
+    public int getSymbolId(int index) {
+        checkIndex(index);
+        return symbols.getId(buffer, starts[index], ends[index]);
+    }
+
+    /**
+     * Returns the constant matching the field value without creating a String, or a new String if none matches.
+     */
+    public String get(int index, String... constants) {
+        for (String constant : constants) {
+            if (equals(index, constant)) {
+                return constant;
+            }
+        }
+        return get(index);
+    }
+
+    public long getLong(int index) {
+        checkIndex(index);
+        int start = starts[index];
+        int end = ends[index];
+        boolean negative = start < end && buffer[start] == '-';
+        if (negative) {
+            start++;
+        }
+        if (start == end) {
+            throw new NumberFormatException("For input string: \"" + get(index) + "\"");
+        }
+        long ret = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + get(index) + "\"");
+            }
+            ret = ret * 10 + digit;
+        }
+        return negative ? -ret : ret;
+    }
+
+    /**
+     * Compares the field with an ASCII value without creating a String.
+     */
+    public boolean equals(int index, String value) {
+        checkIndex(index);
+        int start = starts[index];
+        if (ends[index] - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Case insensitive prefix comparison with an ASCII value.
+     */
+    public boolean startsWithIgnoreCase(int index, String prefix) {
+        checkIndex(index);
+        int start = starts[index];
+        if (ends[index] - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char) buffer[start + i]) != Character.toLowerCase(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    public List<String> toList() {
+        List<String> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.add(get(i));
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+}
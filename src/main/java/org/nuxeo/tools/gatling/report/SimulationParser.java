@@ -16,11 +16,18 @@ package org.nuxeo.tools.gatling.report;
  *     Benoit Delbosc
  */
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public abstract class SimulationParser {
+public abstract class SimulationParser implements Closeable {
 
     protected static final String OK = "OK";
 
@@ -34,10 +41,31 @@ public abstract class SimulationParser {
 
     protected static final String END = "END";
 
+    protected static final String[] TYPES = { REQUEST, USER, RUN };
+
+    protected static final String[] USER_TYPES = { START, END };
+
     protected final File file;
 
     protected final Float apdexT;
 
+    protected Integer histogramPrecision;
+
+    protected int splitThreads = 1;
+
+    protected double[] extraPercentiles = new double[0];
+
+    protected long window;
+
+    protected File spillDirectory;
+
+    // shared by the main and chunk contexts of the simulation
+    protected SpillFile spillFile;
+
+    protected SymbolTable symbols = new SymbolTable();
+
+    protected InputStream input;
+
     public SimulationParser(File file, Float apdexT) {
         this.file = file;
         this.apdexT = apdexT;
@@ -48,74 +76,271 @@ public abstract class SimulationParser {
         this.apdexT = null;
     }
 
+    /**
+     * Record response times into a fixed size histogram with the given number of significant digits instead of keeping
+     * all of them, a null value keeps exact durations.
+     */
+    public SimulationParser setHistogramPrecision(Integer precision) {
+        this.histogramPrecision = precision;
+        return this;
+    }
+
+    /**
+     * Percentiles to compute in addition to p50, p90, p95 and p99, in ascending order.
+     */
+    public SimulationParser setExtraPercentiles(double[] extraPercentiles) {
+        this.extraPercentiles = extraPercentiles;
+        return this;
+    }
+
+    /**
+     * Buckets the requests by end time into windows of this number of milliseconds to get throughput and latency over
+     * time, 0 to disable.
+     */
+    public SimulationParser setWindow(long window) {
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * Store exact durations in a memory mapped file created in this directory instead of the heap, null to disable.
+     */
+    public SimulationParser setSpillDirectory(File directory) {
+        this.spillDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Split uncompressed files into chunks parsed concurrently by this number of threads, 1 to disable.
+     */
+    public SimulationParser setSplitThreads(int threads) {
+        this.splitThreads = threads;
+        return this;
+    }
+
+    /**
+     * Scenario and request names are registered in this table, parsers sharing a table use the same request ids.
+     */
+    public SimulationParser setSymbolTable(SymbolTable symbols) {
+        this.symbols = symbols;
+        return this;
+    }
+
+    /**
+     * Parses this already opened stream on the file content instead of opening the file, the stream is closed by
+     * {@link #parse()}.
+     */
+    protected SimulationParser setInputStream(InputStream input) {
+        this.input = input;
+        return this;
+    }
+
     public SimulationContext parse() throws IOException {
-        SimulationContext ret = new SimulationContext(file.getAbsolutePath(), apdexT);
-        try (SimulationReader reader = new SimulationReader(file)) {
-            List<String> line;
-            String name;
-            String scenario;
-            long start, end;
-            boolean success;
-            List<String> header = reader.readNext();
-            checkLine(header);
-
-            ret.setSimulationName(getSimulationName(header));
-            ret.setScenarioName(getScenario(header));
-            ret.setStart(Long.parseLong(getSimulationStart(header)));
-
-            while ((line = reader.readNext()) != null) {
-                scenario = getScenario(line);
-
-                switch (getType(line)) {
-                    case RUN:
-                        break;
-                    case REQUEST:
-                        name = getRequestName(line);
-                        start = getRequestStart(line);
-                        end = getRequestEnd(line);
-                        success = getRequestSuccess(line);
-                        ret.addRequest(scenario, name, start, end, success);
-                        break;
-                    case USER:
-                        switch (getUserType(line)) {
-                            case START:
-                                ret.addUser(scenario);
-                                break;
-                            case END:
-                                ret.endUser(scenario);
-                                break;
-                        }
-                        break;
-                }
+        if (splitThreads > 1 && !Utils.GZ.equals(Utils.getFileExtension(file)) && newChunkParser() != null) {
+            if (input != null) {
+                input.close();
+                input = null;
             }
+            return parseSplit();
         }
+        SimulationContext ret = newContext();
+        parse(openInputStream(), ret);
         ret.computeStat();
         return ret;
     }
 
-    protected void checkLine(List<String> line) {
-        if (line.size() <= 2) {
+    /**
+     * Parses the header and the lines of the stream into the context, the stream is closed.
+     */
+    protected void parse(InputStream input, SimulationContext context) throws IOException {
+        try (SimulationReader reader = new SimulationReader(input, new SymbolTable(symbols))) {
+            initContext(context, reader.readNext());
+            parseLines(reader, context);
+        }
+    }
+
+    protected InputStream openInputStream() throws IOException {
+        InputStream ret = input != null ? input : Utils.getInputStreamFor(file);
+        input = null;
+        return ret;
+    }
+
+    /**
+     * Releases the stream opened by the {@link ParserFactory} when the simulation is not parsed, does nothing once
+     * parsed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+
+    protected SimulationContext newContext() {
+        SimulationContext ret = new SimulationContext(file.getAbsolutePath(), apdexT, histogramPrecision,
+                getSpillFile());
+        ret.setExtraPercentiles(extraPercentiles);
+        ret.setWindow(window);
+        ret.setSymbolTable(new SymbolTable(symbols));
+        return ret;
+    }
+
+    protected synchronized SpillFile getSpillFile() {
+        if (spillFile == null && spillDirectory != null) {
+            spillFile = new SpillFile(spillDirectory);
+        }
+        return spillFile;
+    }
+
+    protected void initContext(SimulationContext context, SimulationLine header) {
+        checkLine(header);
+        context.setSimulationName(getSimulationName(header));
+        context.setScenarioName(getScenario(header));
+        context.setStart(Long.parseLong(getSimulationStart(header)));
+    }
+
+    protected void parseLines(SimulationReader reader, SimulationContext context) throws IOException {
+        SimulationLine line;
+        int id;
+        String scenario;
+        long start, end;
+        boolean success;
+        while ((line = reader.readNext()) != null) {
+            scenario = getScenario(line);
+
+            switch (getType(line)) {
+                case RUN:
+                    break;
+                case REQUEST:
+                    id = getRequestId(line);
+                    start = getRequestStart(line);
+                    end = getRequestEnd(line);
+                    success = getRequestSuccess(line);
+                    context.addRequest(scenario, id, start, end, success);
+                    break;
+                case USER:
+                    switch (getUserType(line)) {
+                        case START:
+                            context.addUser(scenario, getUserTimestamp(line));
+                            break;
+                        case END:
+                            context.endUser(scenario, getUserTimestamp(line));
+                            break;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Parses the file as memory mapped chunks split at line boundaries, each chunk is parsed by its own parser into a
+     * partial context, partial contexts are then appended in file order.
+     */
+    protected SimulationContext parseSplit() throws IOException {
+        try (SimulationSplitter splitter = new SimulationSplitter(file)) {
+            SimulationContext ret = newContext();
+            initContext(ret, splitter.getHeader());
+            List<long[]> chunks = splitter.getChunks(splitThreads);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(splitThreads, chunks.size())));
+            try {
+                List<Future<SimulationContext>> futures = new ArrayList<>(chunks.size());
+                for (long[] chunk : chunks) {
+                    futures.add(executor.submit(() -> parseChunk(splitter, ret, chunk)));
+                }
+                for (Future<SimulationContext> future : futures) {
+                    ret.append(getChunkResult(future));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            ret.computeStat();
+            return ret;
+        }
+    }
+
+    protected SimulationContext parseChunk(SimulationSplitter splitter, SimulationContext simulation, long[] chunk)
+            throws IOException {
+        SimulationParser parser = newChunkParser().setSymbolTable(symbols);
+        SimulationContext ret = newContext();
+        ret.setSimulationName(simulation.getSimulationName());
+        ret.setScenarioName(simulation.scenarioName);
+        ret.setStart(simulation.start);
+        if (parser.needsPreviousUserLine()) {
+            SimulationLine userLine = splitter.getPreviousLine(chunk[0], USER);
+            if (userLine != null) {
+                parser.getScenario(userLine);
+            }
+        }
+        try (SimulationReader reader = new SimulationReader(splitter.getInputStream(chunk), new SymbolTable(symbols))) {
+            parser.parseLines(reader, ret);
+        }
+        return ret;
+    }
+
+    protected SimulationContext getChunkResult(Future<SimulationContext> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing " + file.getAbsolutePath(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns a new parser with its own state to parse a chunk of the file, or null if this format can not be split.
+     */
+    protected SimulationParser newChunkParser() {
+        return null;
+    }
+
+    /**
+     * Returns true if the parser needs to read the last USER line located before a chunk to resolve the scenario of
+     * its first requests.
+     */
+    protected boolean needsPreviousUserLine() {
+        return false;
+    }
+
+    protected void checkLine(SimulationLine line) {
+        if (line == null || line.size() <= 2) {
             invalidFile();
         }
     }
 
-    protected abstract String getSimulationName(List<String> line);
+    protected abstract String getSimulationName(SimulationLine line);
+
+    protected abstract String getSimulationStart(SimulationLine line);
 
-    protected abstract String getSimulationStart(List<String> line);
+    protected abstract String getScenario(SimulationLine line);
 
-    protected abstract String getScenario(List<String> line);
+    protected abstract String getType(SimulationLine line);
 
-    protected abstract String getType(List<String> line);
+    protected abstract String getUserType(SimulationLine line);
 
-    protected abstract String getUserType(List<String> line);
+    /**
+     * Returns the time of a USER start or end event.
+     */
+    protected abstract long getUserTimestamp(SimulationLine line);
 
-    protected abstract String getRequestName(List<String> line);
+    /**
+     * Returns the symbol table id of the request name.
+     */
+    protected abstract int getRequestId(SimulationLine line);
 
-    protected abstract Long getRequestStart(List<String> line);
+    protected abstract long getRequestStart(SimulationLine line);
 
-    protected abstract Long getRequestEnd(List<String> line);
+    protected abstract long getRequestEnd(SimulationLine line);
 
-    protected abstract boolean getRequestSuccess(List<String> line);
+    protected abstract boolean getRequestSuccess(SimulationLine line);
 
     protected SimulationContext invalidFile() {
         throw new IllegalArgumentException(String.format(
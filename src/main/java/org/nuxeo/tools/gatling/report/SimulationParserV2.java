@@ -17,7 +17,6 @@
 package org.nuxeo.tools.gatling.report;
 
 import java.io.File;
-import java.util.List;
 
 /**
  * Gatling 2.1.7 simulation format
@@ -32,39 +31,49 @@ public class SimulationParserV2 extends SimulationParser {
         super(file);
     }
 
-    protected String getSimulationName(List<String> line) {
+    protected String getSimulationName(SimulationLine line) {
         return line.get(1);
     }
 
-    protected String getSimulationStart(List<String> line) {
+    protected String getSimulationStart(SimulationLine line) {
         return line.get(3);
     }
 
-    protected String getScenario(List<String> line) {
-        return line.get(0);
+    protected String getScenario(SimulationLine line) {
+        return line.getSymbol(0);
     }
 
-    protected String getType(List<String> line) {
-        return line.get(2);
+    protected String getType(SimulationLine line) {
+        return line.get(2, TYPES);
     }
 
-    protected String getUserType(List<String> line) {
-        return line.get(3);
+    protected String getUserType(SimulationLine line) {
+        return line.get(3, USER_TYPES);
+    }
+
+    protected long getUserTimestamp(SimulationLine line) {
+        // the end of a START event is 0
+        return line.getLong(line.equals(3, START) ? 4 : 5);
+    }
+
+    protected int getRequestId(SimulationLine line) {
+        return line.getSymbolId(4);
     }
 
-    protected String getRequestName(List<String> line) {
-        return line.get(4);
+    protected long getRequestStart(SimulationLine line) {
+        return line.getLong(6);
     }
 
-    protected Long getRequestStart(List<String> line) {
-        return Long.parseLong(line.get(6));
+    protected long getRequestEnd(SimulationLine line) {
+        return line.getLong(8);
     }
 
-    protected Long getRequestEnd(List<String> line) {
-        return Long.parseLong(line.get(8));
+    protected boolean getRequestSuccess(SimulationLine line) {
+        return line.equals(9, OK);
     }
 
-    protected boolean getRequestSuccess(List<String> line) {
-        return OK.equals(line.get(9));
+    @Override
+    protected SimulationParser newChunkParser() {
+        return new SimulationParserV2(file, apdexT);
     }
 }
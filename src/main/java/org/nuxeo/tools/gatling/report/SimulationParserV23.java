@@ -18,7 +18,6 @@
 package org.nuxeo.tools.gatling.report;
 
 import java.io.File;
-import java.util.List;
 
 /**
  * Gatling 2.3.1 simulation format
@@ -33,39 +32,48 @@ public class SimulationParserV23 extends SimulationParser {
         super(file);
     }
 
-    protected String getSimulationName(List<String> line) {
+    protected String getSimulationName(SimulationLine line) {
         return line.get(3);
     }
 
-    protected String getSimulationStart(List<String> line) {
+    protected String getSimulationStart(SimulationLine line) {
         return line.get(4);
     }
 
-    protected String getScenario(List<String> line) {
-        return line.get(1);
+    protected String getScenario(SimulationLine line) {
+        return line.getSymbol(1);
     }
 
-    protected String getType(List<String> line) {
-        return line.get(0);
+    protected String getType(SimulationLine line) {
+        return line.get(0, TYPES);
     }
 
-    protected String getUserType(List<String> line) {
-        return line.get(3);
+    protected String getUserType(SimulationLine line) {
+        return line.get(3, USER_TYPES);
     }
 
-    protected String getRequestName(List<String> line) {
-        return line.get(4);
+    protected long getUserTimestamp(SimulationLine line) {
+        return line.getLong(5);
+    }
+
+    protected int getRequestId(SimulationLine line) {
+        return line.getSymbolId(4);
+    }
+
+    protected long getRequestStart(SimulationLine line) {
+        return line.getLong(5);
     }
 
-    protected Long getRequestStart(List<String> line) {
-        return Long.parseLong(line.get(5));
+    protected long getRequestEnd(SimulationLine line) {
+        return line.getLong(6);
     }
 
-    protected Long getRequestEnd(List<String> line) {
-        return Long.parseLong(line.get(6));
+    protected boolean getRequestSuccess(SimulationLine line) {
+        return line.equals(7, OK);
     }
 
-    protected boolean getRequestSuccess(List<String> line) {
-        return OK.equals(line.get(7));
+    @Override
+    protected SimulationParser newChunkParser() {
+        return new SimulationParserV23(file, apdexT);
     }
 }
@@ -17,77 +17,72 @@
 package org.nuxeo.tools.gatling.report;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Gatling 3.? simulation format
  */
 public class SimulationParserV3 extends SimulationParser {
 
-    protected final Map<String, String> userIdToScenarioMap;
+    // In Gatling 3.0, the REQUEST line contains the user id but no longer contains the scenario
+    protected final UserScenarios userScenarios = new UserScenarios();
 
     public SimulationParserV3(File file, Float apdexT) {
         super(file, apdexT);
-        this.userIdToScenarioMap = new HashMap();
     }
 
     public SimulationParserV3(File file) {
         super(file);
-        this.userIdToScenarioMap = new HashMap();
     }
 
-    protected String getSimulationName(List<String> line) {
+    protected String getSimulationName(SimulationLine line) {
         return line.get(2);
     }
 
-    protected String getSimulationStart(List<String> line) {
+    protected String getSimulationStart(SimulationLine line) {
         return line.get(3);
     }
 
-    protected String getScenario(List<String> line) {
-        if (getType(line).equals(REQUEST)) {
-            final String userId = line.get(1);
-            return this.userIdToScenarioMap.get(userId);
-        } else {
-            return line.get(1);
+    protected String getScenario(SimulationLine line) {
+        if (line.equals(0, REQUEST)) {
+            return userScenarios.get(line.getLong(1));
         }
+        String ret = line.getSymbol(1);
+        if (line.equals(0, USER)) {
+            if (line.equals(3, START)) {
+                userScenarios.put(line.getLong(2), ret);
+            } else if (line.equals(3, END)) {
+                userScenarios.remove(line.getLong(2));
+            }
+        }
+        return ret;
     }
 
-    protected String getType(List<String> line) {
-        return line.get(0);
+    protected String getType(SimulationLine line) {
+        return line.get(0, TYPES);
     }
 
-    protected String getUserType(List<String> line) {
-        // In Gatling 3.0, the REQUEST line contains the userid, but no longer contains the scenario.
-        // To determine a REQUEST's scenario, we need to look it up based on the user id, so save the mapping.
-        // Ugly to do it here like this, but the alternative is to add new methods to SimulationParser that would be Gatling 3.0 specfic.
-        saveUserIdAndScenario(line);
-        return line.get(3);
+    protected String getUserType(SimulationLine line) {
+        return line.get(3, USER_TYPES);
     }
 
-    protected String getRequestName(List<String> line) {
-        return line.get(3);
+    protected long getUserTimestamp(SimulationLine line) {
+        return line.getLong(5);
     }
 
-    protected Long getRequestStart(List<String> line) {
-        return Long.parseLong(line.get(4));
+    protected int getRequestId(SimulationLine line) {
+        return line.getSymbolId(3);
     }
 
-    protected Long getRequestEnd(List<String> line) {
-        return Long.parseLong(line.get(5));
+    protected long getRequestStart(SimulationLine line) {
+        return line.getLong(4);
     }
 
-    protected boolean getRequestSuccess(List<String> line) {
-        return OK.equals(line.get(6));
+    protected long getRequestEnd(SimulationLine line) {
+        return line.getLong(5);
     }
 
-    private void saveUserIdAndScenario(List<String> line) {
-        final String scenario = getScenario(line);
-        final String userId = line.get(2);
-        userIdToScenarioMap.put(userId, scenario);
+    protected boolean getRequestSuccess(SimulationLine line) {
+        return line.equals(6, OK);
     }
 
-
 }
@@ -17,16 +17,13 @@
 package org.nuxeo.tools.gatling.report;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Gatling 3.2 simulation format
  */
 public class SimulationParserV32 extends SimulationParser {
 
-    final protected Map<String, String> userScenario = new HashMap<>();
+    final protected UserScenarios userScenarios = new UserScenarios();
 
     public SimulationParserV32(File file, Float apdexT) {
         super(file, apdexT);
@@ -36,51 +33,56 @@ public class SimulationParserV32 extends SimulationParser {
         super(file);
     }
 
-    protected String getSimulationName(List<String> line) {
+    protected String getSimulationName(SimulationLine line) {
         return line.get(2);
     }
 
-    protected String getSimulationStart(List<String> line) {
+    protected String getSimulationStart(SimulationLine line) {
         return line.get(3);
     }
 
-    protected String getScenario(List<String> line) {
-        String user;
-        if (USER.equals(line.get(0))) {
-            user = line.get(2);
-            if (START.equals(line.get(3))) {
-                String ret = line.get(1);
-                userScenario.put(user, ret);
+    protected String getScenario(SimulationLine line) {
+        if (line.equals(0, USER)) {
+            String ret = line.getSymbol(1);
+            if (line.equals(3, START)) {
+                userScenarios.put(line.getLong(2), ret);
+            } else if (line.equals(3, END)) {
+                userScenarios.remove(line.getLong(2));
             }
-        } else if (RUN.equals(line.get(0))) {
-            return line.get(1);
-        } else {
-            user = line.get(1);
+            return ret;
+        } else if (line.equals(0, RUN)) {
+            return line.getSymbol(1);
+        } else if (line.equals(0, REQUEST)) {
+            return userScenarios.get(line.getLong(1));
         }
-        return userScenario.get(user);
+        return null;
     }
 
-    protected String getType(List<String> line) {
-        return line.get(0);
+    protected String getType(SimulationLine line) {
+        return line.get(0, TYPES);
     }
 
-    protected String getUserType(List<String> line) {
-        return line.get(3);
+    protected String getUserType(SimulationLine line) {
+        return line.get(3, USER_TYPES);
     }
 
-    protected String getRequestName(List<String> line) {
-        return line.get(3);
+    protected long getUserTimestamp(SimulationLine line) {
+        return line.getLong(5);
+    }
+
+    protected int getRequestId(SimulationLine line) {
+        return line.getSymbolId(3);
     }
 
-    protected Long getRequestStart(List<String> line) {
-        return Long.parseLong(line.get(4));
+    protected long getRequestStart(SimulationLine line) {
+        return line.getLong(4);
     }
 
-    protected Long getRequestEnd(List<String> line) {
-        return Long.parseLong(line.get(5));
+    protected long getRequestEnd(SimulationLine line) {
+        return line.getLong(5);
     }
 
-    protected boolean getRequestSuccess(List<String> line) {
-        return OK.equals(line.get(6));
+    protected boolean getRequestSuccess(SimulationLine line) {
+        return line.equals(6, OK);
     }
 }
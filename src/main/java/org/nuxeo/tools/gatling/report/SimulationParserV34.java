@@ -17,16 +17,14 @@
 package org.nuxeo.tools.gatling.report;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Gatling 3.4 simulation format
  */
 public class SimulationParserV34 extends SimulationParser {
 
-    final protected Map<String, String> userScenario = new HashMap<>();
+    // Gatling 3.4 requests have no user id, their scenario is the one of the last USER line
+    protected String lastScenario;
 
     public SimulationParserV34(File file, Float apdexT) {
         super(file, apdexT);
@@ -36,55 +34,65 @@ public class SimulationParserV34 extends SimulationParser {
         super(file);
     }
 
-    protected String getSimulationName(List<String> line) {
+    protected String getSimulationName(SimulationLine line) {
         return line.get(2);
     }
 
-    protected String getSimulationStart(List<String> line) {
+    protected String getSimulationStart(SimulationLine line) {
         return line.get(3);
     }
 
-    // Variable tracking user number
-    public long userCount = 0;
-
-    protected String getScenario(List<String> line) {
-        String user;
-        if (USER.equals(line.get(0))) {
-            userCount++;
-            user = Long.toString(userCount);
-            if (START.equals(line.get(2)) || END.equals(line.get(2))) {
-                String ret = line.get(1);
-                userScenario.put(user, ret);
+    protected String getScenario(SimulationLine line) {
+        if (line.equals(0, USER)) {
+            if (line.equals(2, START) || line.equals(2, END)) {
+                lastScenario = line.getSymbol(1);
+            } else {
+                lastScenario = null;
             }
-        } else if (RUN.equals(line.get(0))) {
-            return line.get(1);
-        } else {
-            user = Long.toString(userCount);
+        } else if (line.equals(0, RUN)) {
+            return line.getSymbol(1);
         }
-        return userScenario.get(user);
+        return lastScenario;
     }
 
-    protected String getType(List<String> line) {
-        return line.get(0);
+    protected String getType(SimulationLine line) {
+        return line.get(0, TYPES);
     }
 
-    protected String getUserType(List<String> line) {
-        return line.get(2);
+    protected String getUserType(SimulationLine line) {
+        return line.get(2, USER_TYPES);
     }
 
-    protected String getRequestName(List<String> line) {
-        return line.get(2);
+    protected long getUserTimestamp(SimulationLine line) {
+        return line.getLong(3);
+    }
+
+    protected int getRequestId(SimulationLine line) {
+        return line.getSymbolId(2);
+    }
+
+    protected long getRequestStart(SimulationLine line) {
+        return line.getLong(3);
+    }
+
+    protected long getRequestEnd(SimulationLine line) {
+        return line.getLong(4);
     }
 
-    protected Long getRequestStart(List<String> line) {
-        return Long.parseLong(line.get(3));
+    protected boolean getRequestSuccess(SimulationLine line) {
+        return line.equals(5, OK);
     }
 
-    protected Long getRequestEnd(List<String> line) {
-        return Long.parseLong(line.get(4));
+    @Override
+    protected SimulationParser newChunkParser() {
+        return new SimulationParserV34(file, apdexT);
     }
 
-    protected boolean getRequestSuccess(List<String> line) {
-        return OK.equals(line.get(5));
+    /**
+     * The scenario of a request is the one of the last USER line, a chunk starts with the previous one.
+     */
+    @Override
+    protected boolean needsPreviousUserLine() {
+        return true;
     }
 }
@@ -18,39 +18,101 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.Reader;
-import java.util.List;
-
-import net.quux00.simplecsv.CsvParser;
-import net.quux00.simplecsv.CsvParserBuilder;
-import net.quux00.simplecsv.CsvReader;
+import java.io.InputStream;
+import java.util.Arrays;
 
 /**
- * A CsvReader that skip assertions lines
+ * A tab separated reader of simulation files that skip assertions and blank lines. It works on bytes with a reusable
+ * buffer and a reusable {@link SimulationLine}, no object is created per line.
  *
  * @since 3.0
  */
-public class SimulationReader extends CsvReader {
+public class SimulationReader implements Closeable {
 
     protected static final String ASSERTION = "assertion";
 
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    protected final InputStream input;
+
+    protected final SimulationLine line;
+
+    protected byte[] buffer = new byte[BUFFER_SIZE];
+
+    protected int pos, limit;
+
+    protected boolean eof;
+
     public SimulationReader(File file) throws IOException {
-        this(Utils.getReaderFor(file), 0,
-                new CsvParserBuilder().trimWhitespace(true).allowUnbalancedQuotes(true).separator('\t').build());
+        this(Utils.getInputStreamFor(file));
     }
 
-    public SimulationReader(Reader reader, int line, CsvParser csvParser) {
-        super(reader, line, csvParser);
+    public SimulationReader(InputStream input) {
+        this(input, new SymbolTable());
     }
 
-    @Override
-    public List<String> readNext() throws IOException {
-        List<String> ret = super.readNext();
-        if (ret != null && !ret.isEmpty() && ret.get(0).toLowerCase().startsWith(ASSERTION)) {
-            return readNext();
+    public SimulationReader(InputStream input, SymbolTable symbols) {
+        this.input = input;
+        this.line = new SimulationLine(symbols);
+    }
+
+    /**
+     * Returns the next line or null at the end of the stream, the returned instance is reused on the next call.
+     */
+    public SimulationLine readNext() throws IOException {
+        int end;
+        while ((end = findLineEnd()) >= 0) {
+            line.parse(buffer, pos, end);
+            pos = Math.min(end + 1, limit);
+            if (!line.isEmpty() && !line.startsWithIgnoreCase(0, ASSERTION)) {
+                return line;
+            }
         }
-        return ret;
+        return null;
+    }
+
+    /**
+     * Returns the index of the end of the current line in the buffer, reading more data if needed, -1 when there is no
+     * more line.
+     */
+    protected int findLineEnd() throws IOException {
+        int scanned = pos;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            if (eof) {
+                return pos < limit ? limit : -1;
+            }
+            scanned = limit - pos;
+            fill();
+        }
+    }
+
+    protected void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = input.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
     }
 }
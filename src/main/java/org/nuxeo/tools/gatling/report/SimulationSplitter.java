@@ -0,0 +1,204 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an uncompressed simulation file at line boundaries into memory mapped chunks that can be parsed concurrently.
+ *
+ * @since 5.1
+ */
+public class SimulationSplitter implements Closeable {
+
+    protected static final long MIN_CHUNK_SIZE = 16 * 1024;
+
+    protected static final long MAX_CHUNK_SIZE = 1L << 30;
+
+    protected static final int BLOCK_SIZE = 64 * 1024;
+
+    protected final FileChannel channel;
+
+    protected final long size;
+
+    protected SimulationLine header;
+
+    protected long dataStart;
+
+    public SimulationSplitter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        readHeader();
+    }
+
+    /**
+     * The header is the first line that is not an assertion, data starts on the next line.
+     */
+    protected void readHeader() throws IOException {
+        long pos = 0;
+        while (pos < size) {
+            long next = getNextLineStart(pos + 1);
+            SimulationLine line = parseLine(read(pos, (int) (next - pos)));
+            pos = next;
+            if (line != null) {
+                header = line;
+                break;
+            }
+        }
+        dataStart = pos;
+    }
+
+    public SimulationLine getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the [start, end[ offsets of the chunks, there are at least {@code threads} chunks unless the file is
+     * small, a chunk is never bigger than what can be mapped at once.
+     */
+    public List<long[]> getChunks(int threads) throws IOException {
+        long length = size - dataStart;
+        long count = Math.max(threads, (length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        count = Math.max(1, Math.min(count, length / MIN_CHUNK_SIZE));
+        List<long[]> ret = new ArrayList<>((int) count);
+        long start = dataStart;
+        for (long i = 1; i <= count && start < size; i++) {
+            long end = (i == count) ? size : getNextLineStart(Math.max(start + 1, dataStart + length / count * i));
+            if (end > start) {
+                ret.add(new long[] { start, end });
+                start = end;
+            }
+        }
+        return ret;
+    }
+
+    public InputStream getInputStream(long[] chunk) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+        return new ByteBufferInputStream(buffer);
+    }
+
+    /**
+     * Returns the last line of the given type located before the offset, or null if there is none.
+     */
+    public SimulationLine getPreviousLine(long offset, String type) throws IOException {
+        byte[] pattern = ("\n" + type + "\t").getBytes(UTF_8);
+        // a matching line located before offset ends at the latest with the new line at offset - 1
+        long hi = offset - 1;
+        while (hi > 0) {
+            long lo = Math.max(0, hi - BLOCK_SIZE);
+            int blockEnd = (int) (Math.min(offset - 1, hi + pattern.length - 1) - lo);
+            ByteBuffer block = read(lo, blockEnd);
+            for (int i = (int) (hi - lo) - 1; i >= 0; i--) {
+                if (i + pattern.length <= blockEnd && matches(block, i, pattern)) {
+                    long start = lo + i + 1;
+                    return parseLine(read(start, (int) (getNextLineStart(start + 1) - start)));
+                }
+            }
+            hi = lo;
+        }
+        return null;
+    }
+
+    protected boolean matches(ByteBuffer block, int index, byte[] pattern) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (block.get(index + i) != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the offset of the first line starting at or after the given offset.
+     */
+    protected long getNextLineStart(long offset) throws IOException {
+        long pos = offset - 1;
+        while (pos < size) {
+            ByteBuffer block = read(pos, (int) Math.min(BLOCK_SIZE, size - pos));
+            for (int i = 0; i < block.limit(); i++) {
+                if (block.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += block.limit();
+        }
+        return size;
+    }
+
+    protected ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer ret = ByteBuffer.allocate(length);
+        while (ret.hasRemaining()) {
+            if (channel.read(ret, position + ret.position()) < 0) {
+                break;
+            }
+        }
+        ret.flip();
+        return ret;
+    }
+
+    protected SimulationLine parseLine(ByteBuffer line) throws IOException {
+        try (SimulationReader reader = new SimulationReader(new ByteBufferInputStream(line))) {
+            return reader.readNext();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    protected static class ByteBufferInputStream extends InputStream {
+        protected final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
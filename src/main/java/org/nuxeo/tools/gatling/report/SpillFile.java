@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A temporary file shared by the {@link MappedDurations} of a simulation, each one maps its own regions of the file.
+ * The file is created on the first mapping, so a simulation keeps at most one file open whatever its number of
+ * requests or parsing threads.
+ *
+ * @since 5.1
+ */
+public class SpillFile implements Closeable {
+    protected final File directory;
+
+    protected FileChannel channel;
+
+    protected long length;
+
+    /**
+     * @param directory where to create the temporary file, null for the default temporary directory
+     */
+    public SpillFile(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Maps a new region of the file holding this number of ints, regions are never reused.
+     */
+    public synchronized IntBuffer map(int ints) {
+        long bytes = (long) ints * Integer.BYTES;
+        try {
+            if (channel == null) {
+                open();
+            }
+            IntBuffer ret = channel.map(FileChannel.MapMode.READ_WRITE, length, bytes)
+                                   .order(ByteOrder.nativeOrder())
+                                   .asIntBuffer();
+            length += bytes;
+            return ret;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not extend durations file", e);
+        }
+    }
+
+    protected void open() throws IOException {
+        File file = File.createTempFile("durations", ".bin", directory);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        length = 0;
+        // the mapping stays valid, on some systems the file is only removed on exit
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Closes the file, the space is reclaimed once the mapped regions are no longer referenced.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A binary summary of a parsed simulation written next to the simulation file, so an unchanged simulation is loaded
+ * instead of being parsed again. The summary is keyed by the file size, modification time and a hash of sampled blocks
+ * of its content, as well as the options that change the recorded stats: the Apdex threshold, the histogram
+ * precision, the extra percentiles and the time series window.
+ * <p>
+ * The summary holds the counters of each request with a histogram of its durations, so its size does not depend on the
+ * number of requests and loaded simulations can be merged. When durations are exact, the summary also holds their
+ * exact stats as a {@link DurationSummary}, used as long as the loaded simulation is not merged: merged stats are
+ * computed from histograms with {@link #EXACT_PRECISION} significant digits.
+ *
+ * @since 5.1
+ */
+public class SummaryCache {
+    private static final Logger log = Logger.getLogger(SummaryCache.class);
+
+    public static final String SUFFIX = ".gstat";
+
+    protected static final int MAGIC = 0x47535441;
+
+    protected static final int VERSION = 5;
+
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    protected static final int HASH_BLOCK_SIZE = 64 * 1024;
+
+    protected static final int HASH_BLOCKS = 4;
+
+    // precision of the histograms that summarize exact durations
+    protected static final int EXACT_PRECISION = 3;
+
+    protected final Float apdexT;
+
+    protected final Integer histogramPrecision;
+
+    protected long window;
+
+    protected double[] extraPercentiles = new double[0];
+
+    public SummaryCache(Float apdexT, Integer histogramPrecision) {
+        this.apdexT = apdexT;
+        this.histogramPrecision = histogramPrecision;
+    }
+
+    /**
+     * The time series window in milliseconds of the contexts, 0 when disabled.
+     */
+    public SummaryCache setWindow(long window) {
+        this.window = window;
+        return this;
+    }
+
+    public SummaryCache setExtraPercentiles(double[] extraPercentiles) {
+        this.extraPercentiles = extraPercentiles;
+        return this;
+    }
+
+    public File getSummaryFile(File simulation) {
+        return new File(simulation.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns the context loaded from the summary of the simulation file, stats are not computed, or null if there is
+     * no valid summary.
+     */
+    public SimulationContext load(File simulation) {
+        File summary = getSummaryFile(simulation);
+        if (!summary.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(summary), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readLong() != simulation.length()
+                    || input.readLong() != simulation.lastModified() || input.readLong() != getContentHash(simulation)
+                    || input.readFloat() != getApdexThreshold() || input.readInt() != getPrecision()
+                    || input.readLong() != window || !Arrays.equals(readPercentiles(input), extraPercentiles)) {
+                log.debug("Outdated summary: " + summary);
+                return null;
+            }
+            return readContext(input, simulation);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Invalid summary: " + summary + ", " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the summary of a parsed simulation.
+     */
+    public void save(File simulation, SimulationContext context) throws IOException {
+        File summary = getSummaryFile(simulation);
+        File tmp = new File(summary.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(simulation.length());
+            output.writeLong(simulation.lastModified());
+            output.writeLong(getContentHash(simulation));
+            output.writeFloat(getApdexThreshold());
+            output.writeInt(getPrecision());
+            output.writeLong(window);
+            output.writeInt(extraPercentiles.length);
+            for (double percentile : extraPercentiles) {
+                output.writeDouble(percentile);
+            }
+            writeContext(output, context);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), summary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    protected double[] readPercentiles(DataInput input) throws IOException {
+        double[] ret = new double[input.readInt()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = input.readDouble();
+        }
+        return ret;
+    }
+
+    protected float getApdexThreshold() {
+        return apdexT == null ? Apdex.DEFAULT_THRESOLD : apdexT;
+    }
+
+    protected int getPrecision() {
+        return histogramPrecision == null ? -1 : histogramPrecision;
+    }
+
+    /**
+     * A CRC32 of blocks evenly spread over the file, reading at most {@code HASH_BLOCKS} blocks whatever the file size.
+     */
+    protected long getContentHash(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[HASH_BLOCK_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            for (int i = 0; i < HASH_BLOCKS; i++) {
+                long pos = Math.max(0, (length - HASH_BLOCK_SIZE) * i / (HASH_BLOCKS - 1));
+                int size = (int) Math.min(HASH_BLOCK_SIZE, length - pos);
+                raf.seek(pos);
+                raf.readFully(block, 0, size);
+                crc.update(block, 0, size);
+            }
+        }
+        return crc.getValue();
+    }
+
+    protected void writeContext(DataOutput output, SimulationContext context) throws IOException {
+        writeString(output, context.simulationName);
+        writeString(output, context.scenarioName);
+        output.writeLong(context.start);
+        output.writeInt(context.users.size());
+        for (Map.Entry<String, SimulationContext.CountMax> entry : context.users.entrySet()) {
+            writeString(output, entry.getKey());
+            output.writeInt(entry.getValue().current);
+            output.writeInt(entry.getValue().maximum);
+            if (entry.getValue().series != null) {
+                writeUserSeries(output, entry.getValue().series);
+            }
+        }
+        writeRequestStat(output, context.simStat);
+        List<RequestStat> requests = new ArrayList<>(context.reqStats.values());
+        // keep the creation order of the requests
+        requests.sort(Comparator.comparingInt(request -> request.indice));
+        output.writeInt(requests.size());
+        for (RequestStat request : requests) {
+            writeString(output, request.scenario);
+            writeString(output, request.request);
+            writeRequestStat(output, request);
+        }
+    }
+
+    protected SimulationContext readContext(DataInput input, File simulation) throws IOException {
+        SimulationContext ret = new SimulationContext(simulation.getAbsolutePath(), apdexT, histogramPrecision);
+        ret.setWindow(window);
+        ret.setSimulationName(readString(input));
+        ret.setScenarioName(readString(input));
+        ret.setStart(input.readLong());
+        int users = input.readInt();
+        for (int i = 0; i < users; i++) {
+            String scenario = readString(input);
+            SimulationContext.CountMax count = ret.new CountMax(scenario);
+            count.current = input.readInt();
+            count.maximum = input.readInt();
+            if (count.series != null) {
+                readUserSeries(input, count.series);
+            }
+            ret.users.put(scenario, count);
+        }
+        readRequestStat(input, ret.simStat);
+        int requests = input.readInt();
+        for (int i = 0; i < requests; i++) {
+            String scenario = readString(input);
+            String name = readString(input);
+            RequestStat request = ret.newRequestStat(scenario, name);
+            readRequestStat(input, request);
+            ret.reqStats.put(name, request);
+        }
+        return ret;
+    }
+
+    protected void writeRequestStat(DataOutput output, RequestStat stat) throws IOException {
+        output.writeLong(stat.start);
+        output.writeLong(stat.end);
+        output.writeLong(stat.count);
+        output.writeLong(stat.errorCount);
+        output.writeInt(stat.apdex.satisfied);
+        output.writeInt(stat.apdex.tolerating);
+        output.writeInt(stat.apdex.frustrated);
+        DurationHistogram histogram;
+        if (stat.durations instanceof DurationHistogram) {
+            histogram = (DurationHistogram) stat.durations;
+        } else {
+            histogram = new DurationHistogram(EXACT_PRECISION);
+            histogram.merge(stat.durations);
+        }
+        output.writeByte(histogram.precision);
+        writeHistogram(output, histogram);
+        output.writeBoolean(histogram != stat.durations);
+        if (histogram != stat.durations) {
+            writeSummary(output,
+                    new DurationSummary(stat.durations, stat.getPercentilesToCompute(), BoxPlot.SAMPLE_SIZE));
+        }
+        if (stat.series != null) {
+            writeSeries(output, stat.series);
+        }
+    }
+
+    protected void readRequestStat(DataInput input, RequestStat stat) throws IOException {
+        stat.start = input.readLong();
+        stat.end = input.readLong();
+        stat.count = input.readLong();
+        stat.errorCount = input.readLong();
+        stat.apdex.satisfied = input.readInt();
+        stat.apdex.tolerating = input.readInt();
+        stat.apdex.frustrated = input.readInt();
+        int precision = input.readByte();
+        DurationHistogram histogram = stat.durations instanceof DurationHistogram
+                ? (DurationHistogram) stat.durations
+                : new DurationHistogram(precision);
+        if (histogram.precision != precision) {
+            throw new IOException("Unexpected histogram precision: " + precision);
+        }
+        readHistogram(input, histogram);
+        stat.durations = histogram;
+        if (input.readBoolean()) {
+            stat.summary = readSummary(input);
+        }
+        if (stat.series != null) {
+            readSeries(input, stat.series);
+        }
+    }
+
+    /**
+     * Only non empty latency buckets of each window are written, as index delta and count.
+     */
+    protected void writeSeries(DataOutput output, TimeSeries series) throws IOException {
+        output.writeLong(series.origin);
+        output.writeLong(series.window);
+        output.writeLong(series.lastEnd);
+        writeVarLong(output, series.size);
+        for (int i = 0; i < series.size; i++) {
+            writeVarLong(output, series.counts[i]);
+            writeVarLong(output, series.errors[i]);
+            int offset = i * TimeSeries.BUCKETS;
+            int buckets = 0;
+            for (int b = 0; b < TimeSeries.BUCKETS; b++) {
+                if (series.latencies[offset + b] > 0) {
+                    buckets++;
+                }
+            }
+            writeVarLong(output, buckets);
+            int previous = 0;
+            for (int b = 0; b < TimeSeries.BUCKETS; b++) {
+                if (series.latencies[offset + b] > 0) {
+                    writeVarLong(output, b - previous);
+                    writeVarLong(output, series.latencies[offset + b]);
+                    previous = b;
+                }
+            }
+        }
+    }
+
+    protected void readSeries(DataInput input, TimeSeries series) throws IOException {
+        series.origin = input.readLong();
+        series.window = input.readLong();
+        series.lastEnd = input.readLong();
+        int size = (int) readVarLong(input);
+        series.ensureCapacity(size);
+        series.size = size;
+        for (int i = 0; i < size; i++) {
+            series.counts[i] = (int) readVarLong(input);
+            series.errors[i] = (int) readVarLong(input);
+            int offset = i * TimeSeries.BUCKETS;
+            int buckets = (int) readVarLong(input);
+            int bucket = 0;
+            for (int b = 0; b < buckets; b++) {
+                bucket += (int) readVarLong(input);
+                series.latencies[offset + bucket] = (int) readVarLong(input);
+            }
+        }
+    }
+
+    protected void writeSummary(DataOutput output, DurationSummary summary) throws IOException {
+        output.writeLong(summary.min);
+        output.writeLong(summary.max);
+        output.writeDouble(summary.mean);
+        output.writeDouble(summary.stddev);
+        writeVarLong(output, summary.percentiles.length);
+        for (int i = 0; i < summary.percentiles.length; i++) {
+            output.writeDouble(summary.percentiles[i]);
+            output.writeDouble(summary.values[i]);
+        }
+        output.writeLong(summary.lowerFence);
+        output.writeLong(summary.upperFence);
+        // the sample is sorted, written as variable length deltas
+        writeVarLong(output, summary.sample.length);
+        long previous = 0;
+        for (long value : summary.sample) {
+            writeVarLong(output, zigZag(value - previous));
+            previous = value;
+        }
+    }
+
+    protected DurationSummary readSummary(DataInput input) throws IOException {
+        DurationSummary ret = new DurationSummary();
+        ret.min = input.readLong();
+        ret.max = input.readLong();
+        ret.mean = input.readDouble();
+        ret.stddev = input.readDouble();
+        int percentiles = (int) readVarLong(input);
+        ret.percentiles = new double[percentiles];
+        ret.values = new double[percentiles];
+        for (int i = 0; i < percentiles; i++) {
+            ret.percentiles[i] = input.readDouble();
+            ret.values[i] = input.readDouble();
+        }
+        ret.lowerFence = input.readLong();
+        ret.upperFence = input.readLong();
+        ret.sample = new long[(int) readVarLong(input)];
+        long previous = 0;
+        for (int i = 0; i < ret.sample.length; i++) {
+            previous += unZigZag(readVarLong(input));
+            ret.sample[i] = previous;
+        }
+        return ret;
+    }
+
+    /**
+     * Only non empty buckets are written, as index delta and count.
+     */
+    protected void writeHistogram(DataOutput output, DurationHistogram durations) throws IOException {
+        output.writeLong(durations.totalCount);
+        output.writeLong(durations.min);
+        output.writeLong(durations.max);
+        output.writeDouble(durations.sum);
+        output.writeDouble(durations.sumOfSquares);
+        int buckets = 0;
+        for (long count : durations.counts) {
+            if (count > 0) {
+                buckets++;
+            }
+        }
+        writeVarLong(output, buckets);
+        int previous = 0;
+        for (int i = 0; i < durations.counts.length; i++) {
+            if (durations.counts[i] > 0) {
+                writeVarLong(output, i - previous);
+                writeVarLong(output, durations.counts[i]);
+                previous = i;
+            }
+        }
+    }
+
+    protected void readHistogram(DataInput input, DurationHistogram durations) throws IOException {
+        durations.totalCount = input.readLong();
+        durations.min = input.readLong();
+        durations.max = input.readLong();
+        durations.sum = input.readDouble();
+        durations.sumOfSquares = input.readDouble();
+        int buckets = (int) readVarLong(input);
+        int index = 0;
+        for (int i = 0; i < buckets; i++) {
+            index += (int) readVarLong(input);
+            durations.counts[index] = readVarLong(input);
+        }
+    }
+
+    protected void writeUserSeries(DataOutput output, UserSeries series) throws IOException {
+        output.writeLong(series.origin);
+        output.writeLong(series.window);
+        output.writeInt(series.current);
+        writeVarLong(output, series.size);
+        for (int i = 0; i < series.size; i++) {
+            writeVarLong(output, zigZag(series.maximum[i]));
+            writeVarLong(output, zigZag(series.last[i]));
+        }
+    }
+
+    protected void readUserSeries(DataInput input, UserSeries series) throws IOException {
+        series.origin = input.readLong();
+        series.window = input.readLong();
+        series.current = input.readInt();
+        int size = (int) readVarLong(input);
+        series.ensureCapacity(size);
+        series.size = size;
+        for (int i = 0; i < size; i++) {
+            series.maximum[i] = (int) unZigZag(readVarLong(input));
+            series.last[i] = (int) unZigZag(readVarLong(input));
+        }
+    }
+
+    protected static void writeString(DataOutput output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    protected static String readString(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    protected static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    protected static long readVarLong(DataInput input) throws IOException {
+        long ret = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.readByte();
+            ret |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return ret;
+            }
+        }
+        throw new IOException("Malformed variable length value");
+    }
+
+    protected static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    protected static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+
+/**
+ * Maps UTF-8 encoded names to small integer ids the first time they appear. A lookup hashes and compares bytes in
+ * place, so a known name is resolved without creating a String.
+ * <p>
+ * A table is not thread-safe. To get the same ids across threads or files, each thread uses its own table created on
+ * top of a common shared table: known names are resolved locally, only new names are registered in the shared table
+ * under lock.
+ *
+ * @since 5.1
+ */
+public class SymbolTable {
+    protected static final int INITIAL_CAPACITY = 64;
+
+    protected final SymbolTable shared;
+
+    protected byte[][] keys = new byte[INITIAL_CAPACITY][];
+
+    protected int[] hashes = new int[INITIAL_CAPACITY];
+
+    protected int[] slotIds = new int[INITIAL_CAPACITY];
+
+    protected String[] names = new String[INITIAL_CAPACITY / 2];
+
+    protected int count;
+
+    public SymbolTable() {
+        this(null);
+    }
+
+    /**
+     * Creates a table that takes its ids and names from the shared table.
+     */
+    public SymbolTable(SymbolTable shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Returns the id of the name encoded in {@code bytes[start, end[}, registering it if needed.
+     */
+    public int getId(byte[] bytes, int start, int end) {
+        int hash = hash(bytes, start, end);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && equals(keys[slot], bytes, start, end)) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(slot, hash, Arrays.copyOfRange(bytes, start, end));
+    }
+
+    public int getId(String name) {
+        byte[] bytes = name.getBytes(UTF_8);
+        return getId(bytes, 0, bytes.length);
+    }
+
+    public String getName(int id) {
+        if (id < names.length && names[id] != null) {
+            return names[id];
+        }
+        if (shared == null) {
+            throw new IllegalArgumentException("Unknown symbol id: " + id);
+        }
+        // the id has been registered by another table on the same shared table
+        String ret = shared.getSharedName(id);
+        setName(id, ret);
+        return ret;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    protected int add(int slot, int hash, byte[] key) {
+        int id;
+        String name;
+        if (shared == null) {
+            id = count;
+            name = new String(key, UTF_8);
+        } else {
+            id = shared.getSharedId(key);
+            name = shared.getSharedName(id);
+        }
+        count++;
+        keys[slot] = key;
+        hashes[slot] = hash;
+        slotIds[slot] = id;
+        setName(id, name);
+        if (count * 2 > keys.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    protected void setName(int id, String name) {
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, id + 1));
+        }
+        names[id] = name;
+    }
+
+    protected synchronized int getSharedId(byte[] key) {
+        return getId(key, 0, key.length);
+    }
+
+    protected synchronized String getSharedName(int id) {
+        return getName(id);
+    }
+
+    protected void rehash() {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldIds = slotIds;
+        keys = new byte[oldKeys.length * 2][];
+        hashes = new int[keys.length];
+        slotIds = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                slotIds[slot] = oldIds[i];
+            }
+        }
+    }
+
+    protected static int hash(byte[] bytes, int start, int end) {
+        int ret = 1;
+        for (int i = start; i < end; i++) {
+            ret = 31 * ret + bytes[i];
+        }
+        return ret ^ (ret >>> 16);
+    }
+
+    protected static boolean equals(byte[] key, byte[] bytes, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheFactory;
+
+/**
+ * A thread-safe cache of compiled templates shared by all the reports. Built-in templates are compiled once, a custom
+ * template file is compiled again when its modification time or size changes.
+ *
+ * @since 5.1
+ */
+public class TemplateCache {
+
+    protected static final String[] BUILTIN_TEMPLATES = { Report.HTML + Report.SIMULATION_TEMPLATE,
+            Report.HTML + Report.DIFF_TEMPLATE, Report.HTML + Report.TREND_TEMPLATE,
+            Report.YAML + Report.SIMULATION_TEMPLATE, Report.YAML + Report.DIFF_TEMPLATE,
+            Report.YAML + Report.TREND_TEMPLATE };
+
+    protected static final TemplateCache INSTANCE = new TemplateCache();
+
+    protected final MustacheFactory factory = new DefaultMustacheFactory();
+
+    protected final ConcurrentMap<String, Mustache> builtins = new ConcurrentHashMap<>();
+
+    protected final ConcurrentMap<String, CachedTemplate> templates = new ConcurrentHashMap<>();
+
+    public static TemplateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Compiles all the built-in templates.
+     */
+    public TemplateCache precompile() {
+        for (String name : BUILTIN_TEMPLATES) {
+            getBuiltin(name);
+        }
+        return this;
+    }
+
+    /**
+     * Returns a compiled template from the class path.
+     */
+    public Mustache getBuiltin(String name) {
+        return builtins.computeIfAbsent(name, factory::compile);
+    }
+
+    /**
+     * Returns a compiled template file, compiling it if it is not in the cache or if it has changed.
+     */
+    public Mustache get(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (lastModified == 0 && !file.exists()) {
+            throw new FileNotFoundException(path);
+        }
+        try {
+            return templates.compute(path, (key, cached) -> {
+                if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+                    return cached;
+                }
+                return new CachedTemplate(compile(file, path), lastModified, length);
+            }).mustache;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    protected Mustache compile(File file, String name) {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), UTF_8)) {
+            return factory.compile(reader, name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void clear() {
+        templates.clear();
+    }
+
+    protected static class CachedTemplate {
+        protected final Mustache mustache;
+
+        protected final long lastModified;
+
+        protected final long length;
+
+        protected CachedTemplate(Mustache mustache, long lastModified, long length) {
+            this.mustache = mustache;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Requests bucketed by end time into fixed windows starting at the simulation start. Each window keeps a count, an
+ * error count and a latency histogram with 4 buckets per power of two (values are accurate to about 12%), all stored
+ * in primitive arrays indexed by window.
+ *
+ * @since 5.1
+ */
+public class TimeSeries extends WindowSeries {
+    protected static final int SUB_BUCKET_BITS = 2;
+
+    protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    protected static final int BUCKETS = 128;
+
+    protected long lastEnd;
+
+    protected int[] counts = new int[INITIAL_CAPACITY];
+
+    protected int[] errors = new int[INITIAL_CAPACITY];
+
+    protected int[] latencies = new int[INITIAL_CAPACITY * BUCKETS];
+
+    /**
+     * @param window the window size in milliseconds
+     */
+    public TimeSeries(long origin, long window) {
+        super(origin, window);
+    }
+
+    public void add(long end, long duration, boolean success) {
+        int index = getWindowIndex(end);
+        counts[index]++;
+        if (!success) {
+            errors[index]++;
+        }
+        latencies[index * BUCKETS + getBucket(duration)]++;
+        lastEnd = Math.max(lastEnd, end);
+    }
+
+    /**
+     * Adds the windows of another series, windows are realigned on this series origin and size.
+     */
+    public void merge(TimeSeries other) {
+        while (window < other.window) {
+            coarsen();
+        }
+        for (int i = 0; i < other.size; i++) {
+            if (other.counts[i] == 0) {
+                continue;
+            }
+            int index = getWindowIndex(other.getStart(i));
+            counts[index] += other.counts[i];
+            errors[index] += other.errors[i];
+            for (int b = 0; b < BUCKETS; b++) {
+                latencies[index * BUCKETS + b] += other.latencies[i * BUCKETS + b];
+            }
+        }
+        lastEnd = Math.max(lastEnd, other.lastEnd);
+    }
+
+    @Override
+    protected int getCapacity() {
+        return counts.length;
+    }
+
+    @Override
+    protected void resize(int capacity) {
+        counts = Arrays.copyOf(counts, capacity);
+        errors = Arrays.copyOf(errors, capacity);
+        latencies = Arrays.copyOf(latencies, capacity * BUCKETS);
+    }
+
+    @Override
+    protected void mergeWindows(int target, int first, int second) {
+        counts[target] = counts[first];
+        errors[target] = errors[first];
+        System.arraycopy(latencies, first * BUCKETS, latencies, target * BUCKETS, BUCKETS);
+        if (second >= 0) {
+            counts[target] += counts[second];
+            errors[target] += errors[second];
+            for (int b = 0; b < BUCKETS; b++) {
+                latencies[target * BUCKETS + b] += latencies[second * BUCKETS + b];
+            }
+        }
+    }
+
+    @Override
+    protected void clearWindows(int from, int to) {
+        Arrays.fill(counts, from, to, 0);
+        Arrays.fill(errors, from, to, 0);
+        Arrays.fill(latencies, from * BUCKETS, to * BUCKETS, 0);
+    }
+
+    /**
+     * Values lower than 4 have their own bucket, then each power of two is split into 4 buckets.
+     */
+    protected static int getBucket(long duration) {
+        if (duration < SUB_BUCKETS) {
+            return (int) Math.max(0, duration);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(duration);
+        int sub = (int) (duration >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, SUB_BUCKETS * (exponent - 1) + sub);
+    }
+
+    /**
+     * Returns the lowest value of the bucket.
+     */
+    protected static long getBucketLowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    public int getErrorCount(int index) {
+        return errors[index];
+    }
+
+    /**
+     * Successful requests per second, the last window is only counted up to the last request.
+     */
+    public double getThroughput(int index) {
+        long duration = window;
+        if (index == size - 1) {
+            duration = Math.max(1, Math.min(window, lastEnd - getStart(index)));
+        }
+        return (counts[index] - errors[index]) * 1000.0 / duration;
+    }
+
+    /**
+     * Returns the percentile of the durations ended in the window, as the middle of its histogram bucket, 0 for an
+     * empty window.
+     */
+    public long getPercentile(int index, double percentile) {
+        int count = counts[index];
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        int offset = index * BUCKETS;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += latencies[offset + b];
+            if (seen >= rank) {
+                long low = getBucketLowestValue(b);
+                long high = b + 1 < BUCKETS ? getBucketLowestValue(b + 1) - 1 : low;
+                return (low + high) / 2;
+            }
+        }
+        return getBucketLowestValue(BUCKETS - 1);
+    }
+
+    /**
+     * The throughput of each window as a javascript array.
+     */
+    public String getThroughputs() {
+        StringBuilder ret = new StringBuilder(size * 8 + 2).append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                ret.append(", ");
+            }
+            ret.append(String.format(Locale.ENGLISH, "%.1f", getThroughput(i)));
+        }
+        return ret.append(']').toString();
+    }
+
+    /**
+     * The 95th percentile of each window as a javascript array, null for empty windows so they are not drawn.
+     */
+    public String getP95s() {
+        StringBuilder ret = new StringBuilder(size * 6 + 2).append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                ret.append(", ");
+            }
+            ret.append(counts[i] == 0 ? "null" : String.valueOf(getPercentile(i, 95.0)));
+        }
+        return ret.append(']').toString();
+    }
+}
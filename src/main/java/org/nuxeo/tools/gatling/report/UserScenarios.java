@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Arrays;
+
+/**
+ * The scenario of the running users keyed by their numeric user id, used by the formats where a request line gives
+ * the user id but not the scenario. Keys are primitive longs in an open addressing table, so a lookup allocates
+ * nothing. Users are removed when they end, the table is bounded by the number of concurrent users.
+ *
+ * @since 5.1
+ */
+public class UserScenarios {
+    protected static final int INITIAL_CAPACITY = 64;
+
+    protected static final long FREE = Long.MIN_VALUE;
+
+    protected long[] keys = newKeys(INITIAL_CAPACITY);
+
+    protected String[] scenarios = new String[INITIAL_CAPACITY];
+
+    protected int count;
+
+    public String get(long user) {
+        int mask = keys.length - 1;
+        for (int slot = hash(user) & mask; keys[slot] != FREE; slot = (slot + 1) & mask) {
+            if (keys[slot] == user) {
+                return scenarios[slot];
+            }
+        }
+        return null;
+    }
+
+    public void put(long user, String scenario) {
+        int mask = keys.length - 1;
+        int slot = hash(user) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == user) {
+                scenarios[slot] = scenario;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = user;
+        scenarios[slot] = scenario;
+        if (++count * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Removes the user and returns its scenario, null if it is unknown.
+     */
+    public String remove(long user) {
+        int mask = keys.length - 1;
+        int slot = hash(user) & mask;
+        while (keys[slot] != user) {
+            if (keys[slot] == FREE) {
+                return null;
+            }
+            slot = (slot + 1) & mask;
+        }
+        String ret = scenarios[slot];
+        // shift back the following entries of the cluster so that lookups do not stop on the freed slot
+        int free = slot;
+        for (int next = (slot + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                scenarios[free] = scenarios[next];
+                free = next;
+            }
+        }
+        keys[free] = FREE;
+        scenarios[free] = null;
+        count--;
+        return ret;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    protected void rehash() {
+        long[] oldKeys = keys;
+        String[] oldScenarios = scenarios;
+        keys = newKeys(oldKeys.length * 2);
+        scenarios = new String[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                scenarios[slot] = oldScenarios[i];
+            }
+        }
+    }
+
+    protected static long[] newKeys(int capacity) {
+        long[] ret = new long[capacity];
+        Arrays.fill(ret, FREE);
+        return ret;
+    }
+
+    protected static int hash(long key) {
+        long ret = key * 0x9E3779B97F4A7C15L;
+        return (int) (ret ^ (ret >>> 32));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Arrays;
+
+/**
+ * Concurrent users of a scenario over time, from the USER start and end events. Each window keeps the maximum number
+ * of users reached and the number of users after its last event, a window without event keeps the number of users of
+ * the previous one.
+ * <p>
+ * When parsing a chunk of a simulation, numbers are relative to the users running before the chunk and become absolute
+ * once appended to the series of the previous chunk.
+ *
+ * @since 5.1
+ */
+public class UserSeries extends WindowSeries {
+    // marks a window without event
+    protected static final int NONE = Integer.MIN_VALUE;
+
+    protected int current;
+
+    protected int[] maximum = newWindows(INITIAL_CAPACITY);
+
+    protected int[] last = newWindows(INITIAL_CAPACITY);
+
+    /**
+     * @param window the window size in milliseconds
+     */
+    public UserSeries(long origin, long window) {
+        super(origin, window);
+    }
+
+    protected static int[] newWindows(int capacity) {
+        int[] ret = new int[capacity];
+        Arrays.fill(ret, NONE);
+        return ret;
+    }
+
+    public void incr(long time) {
+        update(time, current + 1);
+    }
+
+    public void decr(long time) {
+        update(time, current - 1);
+    }
+
+    protected void update(long time, int users) {
+        int index = getWindowIndex(time);
+        if (maximum[index] == NONE) {
+            // the window starts with the users of the previous event
+            maximum[index] = current;
+        }
+        maximum[index] = Math.max(maximum[index], users);
+        last[index] = users;
+        current = users;
+    }
+
+    /**
+     * Appends the series of the next part of the simulation, its numbers are relative to the current number of users.
+     */
+    public void append(UserSeries next) {
+        while (window < next.window) {
+            coarsen();
+        }
+        int offset = current;
+        for (int i = 0; i < next.size; i++) {
+            if (next.maximum[i] == NONE) {
+                continue;
+            }
+            int index = getWindowIndex(next.getStart(i));
+            maximum[index] = Math.max(maximum[index], offset + next.maximum[i]);
+            last[index] = offset + next.last[i];
+        }
+        current += next.current;
+    }
+
+    /**
+     * Adds the users of a series recorded at the same time by another injector, the users of each window become the
+     * sum of the users of both series.
+     */
+    public void add(UserSeries other) {
+        while (window < other.window) {
+            coarsen();
+        }
+        if (other.size > 0) {
+            getWindowIndex(other.getStart(other.size - 1));
+        }
+        int[][] mine = getDenseWindows();
+        int[][] others = other.getDenseWindows();
+        for (int i = 0; i < size; i++) {
+            long start = getStart(i);
+            // windows of the other series overlapping this one
+            int from = (int) Math.floorDiv(start - other.origin, other.window);
+            int to = (int) Math.floorDiv(start + window - 1 - other.origin, other.window);
+            int otherMax = Integer.MIN_VALUE;
+            for (int j = from; j <= to; j++) {
+                otherMax = Math.max(otherMax, other.getDenseValue(others[0], j));
+            }
+            maximum[i] = mine[0][i] + otherMax;
+            last[i] = mine[1][i] + other.getDenseValue(others[1], to);
+        }
+        current += other.current;
+    }
+
+    /**
+     * Returns the maximum and last users of each window, windows without event get the users of the previous one.
+     */
+    protected int[][] getDenseWindows() {
+        int[][] ret = new int[2][size];
+        int users = 0;
+        for (int i = 0; i < size; i++) {
+            ret[0][i] = maximum[i] == NONE ? users : maximum[i];
+            if (last[i] != NONE) {
+                users = last[i];
+            }
+            ret[1][i] = users;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the dense value of a window, no user before the first window and the current users after the last one.
+     */
+    protected int getDenseValue(int[] values, int index) {
+        if (index < 0) {
+            return 0;
+        }
+        return index < size ? values[index] : current;
+    }
+
+    @Override
+    protected int getCapacity() {
+        return maximum.length;
+    }
+
+    @Override
+    protected void resize(int capacity) {
+        int previous = maximum.length;
+        maximum = Arrays.copyOf(maximum, capacity);
+        last = Arrays.copyOf(last, capacity);
+        Arrays.fill(maximum, previous, capacity, NONE);
+        Arrays.fill(last, previous, capacity, NONE);
+    }
+
+    @Override
+    protected void mergeWindows(int target, int first, int second) {
+        int max = maximum[first];
+        int end = last[first];
+        if (second >= 0 && maximum[second] != NONE) {
+            max = Math.max(max, maximum[second]);
+            end = last[second];
+        }
+        maximum[target] = max;
+        last[target] = end;
+    }
+
+    @Override
+    protected void clearWindows(int from, int to) {
+        Arrays.fill(maximum, from, to, NONE);
+        Arrays.fill(last, from, to, NONE);
+    }
+
+    /**
+     * Returns the maximum number of concurrent users during the window.
+     */
+    public int getUsers(int index) {
+        if (maximum[index] != NONE) {
+            return maximum[index];
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            if (last[i] != NONE) {
+                return last[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The maximum number of concurrent users of each window as a javascript array.
+     */
+    public String getUsers() {
+        StringBuilder ret = new StringBuilder(size * 5 + 2).append('[');
+        int users = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                ret.append(", ");
+            }
+            ret.append(maximum[i] == NONE ? users : maximum[i]);
+            if (last[i] != NONE) {
+                users = last[i];
+            }
+        }
+        return ret.append(']').toString();
+    }
+}
@@ -16,6 +16,8 @@
 
 package org.nuxeo.tools.gatling.report;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -31,12 +33,17 @@ import java.net.MalformedURLException;
 import java.net.PasswordAuthentication;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Base64;
 import java.util.zip.GZIPInputStream;
 
 public class Utils {
 
     protected static final String GZ = "gz";
 
+    /**
+     * @deprecated since 5.1, installs credentials for the whole JVM, use {@link #getBasicAuthorization} per request
+     */
+    @Deprecated
     public static void setBasicAuth(String user, String password) {
         if (user == null) {
             return;
@@ -48,6 +55,19 @@ public class Utils {
         });
     }
 
+    /**
+     * Returns the value of a basic Authorization header, null if there is no user.
+     *
+     * @since 5.1
+     */
+    public static String getBasicAuthorization(String user, String password) {
+        if (user == null) {
+            return null;
+        }
+        String credentials = user + ":" + (password == null ? "" : password);
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(UTF_8));
+    }
+
     public static String getBaseUrl(String url) {
         URL targetUrl;
         try {
@@ -55,7 +75,8 @@ public class Utils {
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException("Malformed URL: " + url, e);
         }
-        return targetUrl.getProtocol() + "://" + targetUrl.getHost();
+        String port = targetUrl.getPort() < 0 ? "" : ":" + targetUrl.getPort();
+        return targetUrl.getProtocol() + "://" + targetUrl.getHost() + port;
     }
 
     public static void download(URL src, File dest) throws IOException {
@@ -100,6 +121,22 @@ public class Utils {
         return new FileReader(file);
     }
 
+    /**
+     * Returns a stream on the file content, a gzip file is decompressed ahead by a background thread.
+     */
+    public static InputStream getInputStreamFor(File file) throws IOException {
+        InputStream fileStream = new FileInputStream(file);
+        if (GZ.equals(getFileExtension(file))) {
+            try {
+                return new ReadAheadInputStream(new GZIPInputStream(fileStream, 64 * 1024));
+            } catch (IOException e) {
+                fileStream.close();
+                throw e;
+            }
+        }
+        return fileStream;
+    }
+
     public static String getFileExtension(File file) {
         String name = file.getName();
         try {
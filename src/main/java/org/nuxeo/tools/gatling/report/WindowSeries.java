@@ -0,0 +1,141 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Benoit Delbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+/**
+ * Values bucketed by time into fixed windows starting at an origin, usually the simulation start. Subclasses store the
+ * values of each window in primitive arrays.
+ * <p>
+ * The number of windows is bounded, when a time falls after the last window the window size is doubled by merging
+ * adjacent windows, so a long simulation uses coarser windows instead of more memory. Series created with the same
+ * origin and window stay aligned.
+ *
+ * @since 5.1
+ */
+public abstract class WindowSeries {
+    public static final int MAX_WINDOWS = 1024;
+
+    protected static final int INITIAL_CAPACITY = 16;
+
+    protected long origin;
+
+    protected long window;
+
+    protected int size;
+
+    /**
+     * @param window the window size in milliseconds
+     */
+    public WindowSeries(long origin, long window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + window);
+        }
+        this.origin = origin;
+        this.window = window;
+    }
+
+    /**
+     * Sets the start of the first window, only before adding values.
+     */
+    public void setOrigin(long origin) {
+        if (size > 0) {
+            throw new IllegalStateException("Can not move a non empty series");
+        }
+        this.origin = origin;
+    }
+
+    /**
+     * Returns the index of the window containing the time, growing or coarsening the series as needed.
+     */
+    protected int getWindowIndex(long time) {
+        long index = Math.max(0, time - origin) / window;
+        while (index >= MAX_WINDOWS) {
+            coarsen();
+            index = Math.max(0, time - origin) / window;
+        }
+        if (index >= size) {
+            ensureCapacity((int) index + 1);
+            size = (int) index + 1;
+        }
+        return (int) index;
+    }
+
+    protected void ensureCapacity(int windows) {
+        int capacity = getCapacity();
+        if (windows > capacity) {
+            resize(Math.min(MAX_WINDOWS, Math.max(windows, capacity * 2)));
+        }
+    }
+
+    /**
+     * Doubles the window size, merging windows by pair.
+     */
+    protected void coarsen() {
+        int newSize = (size + 1) / 2;
+        for (int i = 0; i < newSize; i++) {
+            int second = 2 * i + 1;
+            mergeWindows(i, 2 * i, second < size ? second : -1);
+        }
+        clearWindows(newSize, size);
+        size = newSize;
+        window *= 2;
+    }
+
+    /**
+     * Returns the number of windows that can be stored without resizing.
+     */
+    protected abstract int getCapacity();
+
+    protected abstract void resize(int capacity);
+
+    /**
+     * Stores in the target window the merge of the first window and of the second one, -1 if there is no second
+     * window. The target is never after the first window.
+     */
+    protected abstract void mergeWindows(int target, int first, int second);
+
+    /**
+     * Resets the windows from the first index inclusive to the last one exclusive.
+     */
+    protected abstract void clearWindows(int from, int to);
+
+    public int size() {
+        return size;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    public long getStart(int index) {
+        return origin + index * window;
+    }
+
+    /**
+     * The start time of each window as a javascript array of milliseconds since epoch.
+     */
+    public String getTimes() {
+        StringBuilder ret = new StringBuilder(size * 15 + 2).append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                ret.append(", ");
+            }
+            ret.append(getStart(i));
+        }
+        return ret.append(']').toString();
+    }
+}
@@ -16,10 +16,24 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -112,6 +126,273 @@ public class TestParser {
         Assert.assertTrue(ret.toString().contains("_all"));
     }
 
+    @Test
+    public void parseSplitSimulationVersion23() throws Exception {
+        File file = getRessourceFile(SIM_V2_3);
+        SimulationContext ret = ParserFactory.getParser(file).setSplitThreads(4).parse();
+        Assert.assertEquals(1000, ret.getSimStat().getCount());
+        Assert.assertEquals(ParserFactory.getParser(file).parse().toString(), ret.toString());
+    }
+
+    @Test
+    public void parseSplitSimulationVersion34() throws Exception {
+        // repeat the small simulation to get multiple chunks
+        List<String> lines = Files.readAllLines(getRessourceFile(SIM_SMALL_V3_4).toPath());
+        List<String> content = new ArrayList<>(lines.subList(0, 2));
+        for (int i = 0; i < 100; i++) {
+            content.addAll(lines.subList(2, lines.size()));
+        }
+        File file = File.createTempFile("simulation", ".log");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+        SimulationContext ret = ParserFactory.getParser(file).setSplitThreads(4).parse();
+        Assert.assertEquals(3100, ret.getSimStat().getCount());
+        Assert.assertEquals(ParserFactory.getParser(file).parse().toString(), ret.toString());
+    }
+
+    @Test
+    public void followGrowingSimulation() throws Exception {
+        byte[] content = Files.readAllBytes(getRessourceFile(SIM_SMALL_V3_4).toPath());
+        File file = File.createTempFile("simulation", ".log");
+        file.deleteOnExit();
+        // stop in the middle of a line
+        int half = content.length / 2;
+        Files.write(file.toPath(), Arrays.copyOf(content, half));
+        SimulationFollower follower = new SimulationFollower(ParserFactory.getParser(file));
+        Thread thread = new Thread(follower);
+        thread.start();
+        long[] count = new long[1];
+        while (count[0] == 0) {
+            follower.snapshot(context -> count[0] = context.getSimStat().getCount());
+            Thread.sleep(10);
+        }
+        Files.write(file.toPath(), Arrays.copyOfRange(content, half, content.length), StandardOpenOption.APPEND);
+        follower.close();
+        thread.join(10000);
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertEquals(ParserFactory.getParser(file).parse().toString(), follower.getContext().toString());
+    }
+
+    @Test
+    public void computeUserSeries() throws Exception {
+        File file = getRessourceFile(SIM_V2_3);
+        SimulationContext ret = ParserFactory.getParser(file).setWindow(1000).parse();
+        List<SimulationContext.CountMax> users = ret.getUserSeries();
+        Assert.assertFalse(users.isEmpty());
+        for (SimulationContext.CountMax count : users) {
+            UserSeries series = count.series;
+            int max = 0;
+            for (int i = 0; i < series.size(); i++) {
+                max = Math.max(max, series.getUsers(i));
+            }
+            Assert.assertEquals(count.maximum, max);
+            Assert.assertEquals(count.current, series.current);
+        }
+        // chunks parsed concurrently give the same series
+        SimulationContext split = ParserFactory.getParser(file).setWindow(1000).setSplitThreads(4).parse();
+        Assert.assertEquals(users.size(), split.getUserSeries().size());
+        for (int i = 0; i < users.size(); i++) {
+            Assert.assertEquals(users.get(i).series.getUsers(), split.getUserSeries().get(i).series.getUsers());
+        }
+    }
+
+    @Test
+    public void closeUnusedParser() throws Exception {
+        SimulationParser parser = ParserFactory.getParser(getRessourceFile(SIM_GZ));
+        Assert.assertNotNull(parser.input);
+        parser.close();
+        Assert.assertNull(parser.input);
+        // the file is opened again when parsing after close
+        Assert.assertEquals(2464, parser.parse().getSimStat().count);
+    }
+
+    @Test
+    public void mergeShardedSimulations() throws Exception {
+        // split the users of a simulation between two injectors
+        File file = getRessourceFile(SIM_V2_3);
+        List<String> lines = Files.readAllLines(file.toPath());
+        List<List<String>> shards = Arrays.asList(new ArrayList<>(), new ArrayList<>());
+        List<SimulationContext> stats = new ArrayList<>();
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (line.startsWith("USER") || line.startsWith("REQUEST")) {
+                shards.get(Integer.parseInt(fields[2]) % 2).add(line);
+            } else {
+                shards.forEach(shard -> shard.add(line));
+            }
+        }
+        for (List<String> shard : shards) {
+            File shardFile = File.createTempFile("simulation", ".log");
+            shardFile.deleteOnExit();
+            Files.write(shardFile.toPath(), shard);
+            stats.add(ParserFactory.getParser(shardFile).setWindow(1000).parse());
+        }
+        SimulationContext ref = ParserFactory.getParser(file).setWindow(1000).parse();
+        SimulationContext ret = SimulationContext.merge(stats);
+        RequestStat expected = ref.getSimStat();
+        RequestStat merged = ret.getSimStat();
+        Assert.assertEquals(expected.count, merged.count);
+        Assert.assertEquals(expected.errorCount, merged.errorCount);
+        Assert.assertEquals(expected.start, merged.start);
+        Assert.assertEquals(expected.end, merged.end);
+        Assert.assertEquals(expected.p50, merged.p50);
+        Assert.assertEquals(expected.p99, merged.p99);
+        Assert.assertEquals(expected.avg, merged.avg, 0.001);
+        Assert.assertEquals(expected.apdex.getScore(), merged.apdex.getScore(), 0.001);
+        Assert.assertEquals(ref.getRequests().size(), ret.getRequests().size());
+        Assert.assertTrue(ret.maxUsers >= ref.maxUsers);
+        Assert.assertTrue(ret.maxUsers <= stats.get(0).maxUsers + stats.get(1).maxUsers);
+    }
+
+    @Test
+    public void registerSimulationFormat() throws Exception {
+        List<String> lines = Files.readAllLines(getRessourceFile(SIM_SMALL_V3_4).toPath());
+        lines.set(1, lines.get(1).replace("3.4.0", "9.1.0"));
+        File file = File.createTempFile("simulation", ".log");
+        file.deleteOnExit();
+        Files.write(file.toPath(), lines);
+        try {
+            ParserFactory.getParser(file);
+            Assert.fail("Expecting an unknown version");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("9.1.0"));
+        }
+        ParserFactory.register(header -> header.size() == 6 && header.equals(5, "9.1.0"), SimulationParserV34::new);
+        SimulationParser parser = ParserFactory.getParser(file);
+        Assert.assertTrue(parser instanceof SimulationParserV34);
+        Assert.assertEquals(31, parser.parse().getSimStat().getCount());
+    }
+
+    @Test
+    public void shareRequestIdsAcrossSimulations() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        SimulationContext ref = ParserFactory.getParser(getRessourceFile(SIM_V2_3)).setSymbolTable(symbols).parse();
+        SimulationContext other = ParserFactory.getParser(getRessourceFile(SIM_V2_3))
+                                               .setSymbolTable(symbols)
+                                               .setSplitThreads(4)
+                                               .parse();
+        Assert.assertEquals(ref.toString(), other.toString());
+        SymbolTable local = new SymbolTable(symbols);
+        for (RequestStat request : ref.getRequests()) {
+            int id = local.getId(request.request);
+            Assert.assertTrue(id < symbols.size());
+            Assert.assertEquals(request.request, symbols.getName(id));
+        }
+    }
+
+    @Test
+    public void readAheadCompressedSimulation() throws Exception {
+        File file = getRessourceFile(SIM_GZ);
+        byte[] expected;
+        try (InputStream input = new GZIPInputStream(new FileInputStream(file))) {
+            expected = IOUtils.toByteArray(input);
+        }
+        try (InputStream input = new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(file)), 1000, 2)) {
+            Assert.assertArrayEquals(expected, IOUtils.toByteArray(input));
+            Assert.assertEquals(-1, input.read());
+        }
+        // a truncated file fails on the consumer side
+        byte[] truncated = Arrays.copyOf(Files.readAllBytes(file.toPath()), 1000);
+        try (InputStream input = new ReadAheadInputStream(new GZIPInputStream(new ByteArrayInputStream(truncated)))) {
+            IOUtils.toByteArray(input);
+            Assert.fail("Expecting an IOException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void loadSimulationSummary() throws Exception {
+        File dir = Files.createTempDirectory("summary").toFile();
+        File file = new File(dir, SIM_GZ);
+        FileUtils.copyFile(getRessourceFile(SIM_GZ), file);
+        for (Integer precision : new Integer[] { null, 3 }) {
+            SummaryCache cache = new SummaryCache(null, precision);
+            Assert.assertNull(cache.load(file));
+            SimulationContext ref = ParserFactory.getParser(file).setHistogramPrecision(precision).parse();
+            cache.save(file, ref);
+            SimulationContext ret = cache.load(file);
+            ret.computeStat();
+            Assert.assertEquals(ref.toString(), ret.toString());
+            Assert.assertEquals(ref.maxUsers, ret.maxUsers);
+            Assert.assertEquals(ref.getSimStat().getBoxPlot().toString(), ret.getSimStat().getBoxPlot().toString());
+            // loaded simulations can be merged with parsed ones
+            SimulationContext merged = SimulationContext.merge(Arrays.asList(ref, ret));
+            merged.computeStat();
+            Assert.assertEquals(2 * ref.getSimStat().count, merged.getSimStat().count);
+            Assert.assertEquals(ref.getSimStat().p95, merged.getSimStat().p95, ref.getSimStat().p95 * 0.01 + 1);
+            // the summary depends on the histogram precision and the extra percentiles
+            Assert.assertNull(new SummaryCache(null, precision == null ? 2 : null).load(file));
+            Assert.assertNull(new SummaryCache(null, precision).setExtraPercentiles(new double[] { 99.9 }).load(file));
+            cache.getSummaryFile(file).delete();
+        }
+        SummaryCache cache = new SummaryCache(null, null);
+        cache.save(file, ParserFactory.getParser(file).parse());
+        long lastModified = file.lastModified();
+        byte[] content = Files.readAllBytes(file.toPath());
+        content[content.length / 2] ^= 1;
+        Files.write(file.toPath(), content);
+        file.setLastModified(lastModified);
+        Assert.assertNull(cache.load(file));
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void readSimulationLines() throws Exception {
+        String content = "ASSERTION\tfoo\nREQUEST\t1\t\t\"a name\"\t1448309155293\t1448309155604\tOK\t \r\n\nUSER\t-12";
+        try (SimulationReader reader = new SimulationReader(new ByteArrayInputStream(content.getBytes(UTF_8)))) {
+            SimulationLine line = reader.readNext();
+            Assert.assertEquals(8, line.size());
+            Assert.assertEquals("REQUEST", line.get(0, SimulationParser.TYPES));
+            Assert.assertEquals("", line.get(2));
+            Assert.assertEquals("a name", line.getSymbol(3));
+            Assert.assertSame(line.getSymbol(3), line.getSymbol(3));
+            Assert.assertEquals(1448309155293L, line.getLong(4));
+            Assert.assertTrue(line.equals(6, "OK"));
+            Assert.assertEquals("", line.get(7));
+            line = reader.readNext();
+            Assert.assertEquals(2, line.size());
+            Assert.assertEquals(-12, line.getLong(1));
+            Assert.assertNull(reader.readNext());
+        }
+    }
+
+    @Test
+    public void renumberParsedSimulations() throws Exception {
+        SimulationContext second = ParserFactory.getParser(getRessourceFile(SIM_SMALL_V3)).parse();
+        SimulationContext first = ParserFactory.getParser(getRessourceFile(SIM_SMALL_V2_1)).parse();
+        int next = second.renumber(first.renumber(1));
+        Assert.assertEquals(1, first.simStat.indice);
+        Assert.assertEquals(first.reqStats.size() + 2, second.simStat.indice);
+        Assert.assertEquals(first.reqStats.size() + second.reqStats.size() + 3, next);
+        List<Integer> indices = new ArrayList<>();
+        for (SimulationContext context : Arrays.asList(first, second)) {
+            indices.add(context.simStat.indice);
+            context.reqStats.values().forEach(request -> indices.add(request.indice));
+        }
+        indices.sort(null);
+        for (int i = 0; i < indices.size(); i++) {
+            Assert.assertEquals(i + 1, (int) indices.get(i));
+        }
+    }
+
+    @Test
+    public void trackUserScenarios() throws Exception {
+        UserScenarios users = new UserScenarios();
+        for (long user = 1; user <= 1000; user++) {
+            users.put(user, user % 2 == 0 ? "even" : "odd");
+        }
+        Assert.assertEquals(1000, users.size());
+        for (long user = 1; user <= 1000; user += 3) {
+            Assert.assertEquals(user % 2 == 0 ? "even" : "odd", users.remove(user));
+        }
+        for (long user = 1; user <= 1000; user++) {
+            Assert.assertEquals(user % 3 == 1 ? null : user % 2 == 0 ? "even" : "odd", users.get(user));
+        }
+        Assert.assertNull(users.remove(1));
+        Assert.assertEquals(666, users.size());
+    }
+
     protected File getRessourceFile(String filename) throws FileNotFoundException {
         ClassLoader classLoader = getClass().getClassLoader();
         if (classLoader.getResource(filename) == null) {
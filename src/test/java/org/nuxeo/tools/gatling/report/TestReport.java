@@ -16,20 +16,40 @@
  */
 package org.nuxeo.tools.gatling.report;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
 public class TestReport {
 
     protected static final String SIM_GZ = "simulation-1.log.gz";
@@ -37,6 +57,10 @@ public class TestReport {
     protected static final List<String> SIMS_GZ = Arrays.asList("simulation.log.1.gz", "simulation.log.2.gz",
             "simulation.log.3.gz", "simulation.log.4.gz");
 
+    protected static final String GRAPHITE_DASHBOARD = "{\"state\": {\"graphs\": ["
+            + "[\"cpu\", {\"title\": \"CPU\"}, \"/render?target=cpu\"],"
+            + "[\"mem\", {\"title\": \"Memory\"}, \"/render?target=mem\"]]}}";
+
     @Test
     public void generateSimulationReport() throws Exception {
         List<SimulationContext> stats = Collections.singletonList(ParserFactory.getParser(getResourceFile(SIM_GZ)).parse());
@@ -47,6 +71,17 @@ public class TestReport {
         Assert.assertTrue(writer.toString().contains("simulation sim50bench"));
     }
 
+    @Test
+    public void generateTimeSeriesReport() throws Exception {
+        List<SimulationContext> stats = Collections.singletonList(
+                ParserFactory.getParser(getResourceFile(SIM_GZ)).setWindow(1000).parse());
+        Writer writer = new StringWriter();
+        new Report(stats).setWriter(writer).create();
+        String content = writer.toString();
+        Assert.assertTrue(content.contains("Plotly.newPlot('throughputDiv'"));
+        Assert.assertTrue(content.contains("x: " + stats.get(0).getSimStat().getSeries().getTimes()));
+    }
+
     @Test
     public void generateTrendReport() throws Exception {
         List<SimulationContext> stats = new ArrayList<>(SIMS_GZ.size());
@@ -64,6 +99,270 @@ public class TestReport {
         Assert.assertTrue(writer.toString().contains("Trend report"));
     }
 
+    @Test
+    public void generateTrendReportWithoutDurations() throws Exception {
+        List<SimulationContext> stats = new ArrayList<>(SIMS_GZ.size());
+        List<SimulationContext> released = new ArrayList<>(SIMS_GZ.size());
+        for (String file : SIMS_GZ) {
+            stats.add(ParserFactory.getParser(getResourceFile(file)).parse());
+            released.add(ParserFactory.getParser(getResourceFile(file)).parse().releaseDurations());
+        }
+        TrendContext expected = new TrendContext(stats);
+        TrendContext trend = new TrendContext(released);
+        Assert.assertEquals(expected.all.yvalues, trend.all.yvalues);
+        Assert.assertEquals(expected.all.yerrors, trend.all.yerrors);
+        Assert.assertEquals(expected.getRef().rps, trend.getRef().rps);
+        Writer writer = new StringWriter();
+        new Report(released).setWriter(writer).create();
+        Assert.assertTrue(writer.toString().contains("Trend report"));
+        Assert.assertEquals(0, released.get(0).getSimStat().durations.size());
+        Assert.assertEquals(stats.get(0).toString(), released.get(0).toString());
+    }
+
+    @Test
+    public void generateGraphiteReport() throws Exception {
+        AtomicInteger renders = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/dashboard/load/", exchange -> reply(exchange, 200, GRAPHITE_DASHBOARD));
+        server.createContext("/render", exchange -> {
+            // the first image download fails once and is retried
+            boolean fail = exchange.getRequestURI().getQuery().contains("mem") && renders.getAndIncrement() == 0;
+            reply(exchange, fail ? 503 : 200, "png");
+        });
+        server.start();
+        File dir = Files.createTempDirectory("report").toFile();
+        try (HttpDownloader downloader = new HttpDownloader(2)) {
+            List<SimulationContext> stats = Collections.singletonList(
+                    ParserFactory.getParser(getResourceFile(SIM_GZ)).parse());
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/dashboard/#bench";
+            Writer writer = new StringWriter();
+            new Report(stats).setOutputDirectory(dir)
+                             .setWriter(writer)
+                             .includeGraphite(url, null, null, null)
+                             .setDownloader(downloader)
+                             .create();
+            Graphite graphite = stats.get(0).getSimStat().graphite;
+            Assert.assertEquals(2, graphite.images.size());
+            for (Graphite.Image image : graphite.images) {
+                Assert.assertEquals("png", FileUtils.readFileToString(image.getFile(dir)));
+                Assert.assertTrue(writer.toString().contains(image.filename));
+            }
+            Assert.assertEquals(2, renders.get());
+        } finally {
+            server.stop(0);
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void generateGraphiteReportsWithDifferentCredentials() throws Exception {
+        AtomicInteger challenges = new AtomicInteger();
+        List<HttpServer> servers = new ArrayList<>();
+        List<SimulationContext> stats = new ArrayList<>();
+        File dir = Files.createTempDirectory("report").toFile();
+        try (HttpDownloader downloader = new HttpDownloader(2)) {
+            List<Future<?>> reports = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            for (String user : Arrays.asList("alice", "bob")) {
+                String authorization = Utils.getBasicAuthorization(user, user + "-secret");
+                HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+                server.createContext("/", exchange -> {
+                    if (!authorization.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                        challenges.incrementAndGet();
+                        exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"graphite\"");
+                        reply(exchange, 401, "");
+                    } else if (exchange.getRequestURI().getPath().startsWith("/dashboard/load/")) {
+                        reply(exchange, 200, GRAPHITE_DASHBOARD);
+                    } else {
+                        reply(exchange, 200, user);
+                    }
+                });
+                server.start();
+                servers.add(server);
+                SimulationContext stat = ParserFactory.getParser(getResourceFile(SIM_GZ)).parse();
+                stats.add(stat);
+                String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/dashboard/#bench";
+                File output = new File(dir, user);
+                output.mkdirs();
+                reports.add(executor.submit(() -> new Report(Collections.singletonList(stat)).setOutputDirectory(
+                        output).includeGraphite(url, user, user + "-secret", null).setDownloader(downloader).create()));
+            }
+            for (Future<?> report : reports) {
+                report.get();
+            }
+            executor.shutdownNow();
+            Assert.assertEquals(0, challenges.get());
+            for (Graphite.Image image : stats.get(1).getSimStat().graphite.images) {
+                Assert.assertEquals("bob", FileUtils.readFileToString(image.getFile(new File(dir, "bob"))));
+            }
+        } finally {
+            servers.forEach(server -> server.stop(0));
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void generateGraphiteReportFromCache() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            boolean dashboard = exchange.getRequestURI().getPath().startsWith("/dashboard/load/");
+            reply(exchange, 200, dashboard ? GRAPHITE_DASHBOARD : "png");
+        });
+        server.start();
+        File dir = Files.createTempDirectory("report").toFile();
+        try (HttpDownloader downloader = new HttpDownloader(2)) {
+            downloader.setCache(new DownloadCache(new File(dir, "cache")));
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/dashboard/#bench";
+            for (String name : Arrays.asList("first", "second", "third")) {
+                File output = new File(dir, name);
+                output.mkdirs();
+                List<SimulationContext> stats = Collections.singletonList(
+                        ParserFactory.getParser(getResourceFile(SIM_GZ)).parse());
+                new Report(stats).setOutputDirectory(output)
+                                 .includeGraphite(url, "third".equals(name) ? "bob" : null, "secret", null)
+                                 .setDownloader(downloader)
+                                 .create();
+                for (Graphite.Image image : stats.get(0).getSimStat().graphite.images) {
+                    Assert.assertEquals("png", FileUtils.readFileToString(image.getFile(output)));
+                }
+            }
+            // the dashboard and its 2 images are downloaded again only with other credentials
+            Assert.assertEquals(6, requests.get());
+        } finally {
+            server.stop(0);
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedDownloads() throws Exception {
+        File dir = Files.createTempDirectory("cache").toFile();
+        try {
+            DownloadCache cache = new DownloadCache(dir, 25);
+            byte[] content = new byte[10];
+            cache.put("http://graphite/a", content);
+            cache.getFile("http://graphite/a").setLastModified(1000);
+            cache.put("http://graphite/b", content);
+            cache.getFile("http://graphite/b").setLastModified(2000);
+            Assert.assertNotNull(cache.get("http://graphite/a"));
+            cache.put("http://graphite/c", content);
+            Assert.assertNotNull(cache.get("http://graphite/a"));
+            Assert.assertNull(cache.get("http://graphite/b"));
+            Assert.assertNotNull(cache.get("http://graphite/c"));
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void serveReports() throws Exception {
+        App app = new App(new String[] { "--serve", "0" });
+        try (ReportServer server = new ReportServer(app, 0, 2, 4).start()) {
+            String base = "http://localhost:" + server.getPort();
+            String path = URLEncoder.encode(getResourceFile(SIM_GZ).getAbsolutePath(), "UTF-8");
+            String csv = request(base + "/csv?simulation=" + path, null, 200);
+            Assert.assertTrue(csv.startsWith("simulation\tscenario"));
+            Assert.assertTrue(csv.contains("sim50bench"));
+            // served from the parsed simulations
+            Assert.assertEquals(csv, request(base + "/csv?simulation=" + path, null, 200));
+            Assert.assertEquals(1, server.cache.size());
+            Assert.assertTrue(request(base + "/report?simulation=" + path, null, 200).contains(
+                    "simulation sim50bench"));
+            byte[] upload = Files.readAllBytes(getResourceFile(SIM_GZ).toPath());
+            Assert.assertEquals(csv.substring(csv.indexOf('\n')),
+                    request(base + "/csv", upload, 200).substring(csv.indexOf('\n')));
+            request(base + "/csv?simulation=unknown.log", null, 404);
+            request(base + "/csv", null, 400);
+            // the names of the served simulations are not kept by the process wide table
+            Assert.assertEquals(0, app.symbols.size());
+            server.setMaxUploadSize(upload.length - 1);
+            request(base + "/csv", upload, 413);
+        }
+    }
+
+    protected String request(String url, byte[] body, int status) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            try (OutputStream output = conn.getOutputStream()) {
+                output.write(body);
+            }
+        }
+        Assert.assertEquals(status, conn.getResponseCode());
+        try (InputStream input = status == 200 ? conn.getInputStream() : conn.getErrorStream()) {
+            return IOUtils.toString(input, "UTF-8");
+        }
+    }
+
+    protected static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    @Test
+    public void generateCompressedSimulationReport() throws Exception {
+        List<SimulationContext> stats = Collections.singletonList(ParserFactory.getParser(getResourceFile(SIM_GZ)).parse());
+        File dir = Files.createTempDirectory("report").toFile();
+        String reportPath = new Report(stats).setOutputDirectory(dir).gzip(true).create();
+        Assert.assertTrue(reportPath.endsWith("index.html.gz"));
+        String content;
+        try (InputStream input = new GZIPInputStream(new FileInputStream(reportPath))) {
+            content = IOUtils.toString(input, "UTF-8");
+        }
+        Assert.assertTrue(content.contains("simulation sim50bench"));
+        Assert.assertTrue(content.trim().endsWith("</script>"));
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void generateReportsConcurrently() throws Exception {
+        List<SimulationContext> stats = Collections.singletonList(ParserFactory.getParser(getResourceFile(SIM_GZ)).parse());
+        String expected = renderSimulationReport(stats);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> renderSimulationReport(stats)));
+            }
+            for (Future<String> future : futures) {
+                Assert.assertEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reloadModifiedTemplate() throws Exception {
+        File template = File.createTempFile("template", ".mustache");
+        template.deleteOnExit();
+        List<SimulationContext> stats = Collections.singletonList(ParserFactory.getParser(getResourceFile(SIM_GZ)).parse());
+        FileUtils.writeStringToFile(template, "name: {{simulationName}}");
+        Assert.assertEquals("name: sim50bench", renderTemplate(stats, template));
+        Assert.assertSame(TemplateCache.getInstance().get(template), TemplateCache.getInstance().get(template));
+        FileUtils.writeStringToFile(template, "count: {{simStat.count}}");
+        template.setLastModified(template.lastModified() + 2000);
+        Assert.assertEquals("count: 2464", renderTemplate(stats, template));
+    }
+
+    protected String renderSimulationReport(List<SimulationContext> stats) throws IOException {
+        Writer writer = new StringWriter();
+        new Report(stats).setWriter(writer).create();
+        return writer.toString();
+    }
+
+    protected String renderTemplate(List<SimulationContext> stats, File template) throws IOException {
+        Writer writer = new StringWriter();
+        new Report(stats).setTemplate(template.getAbsolutePath()).setWriter(writer).create();
+        return writer.toString();
+    }
+
     protected File getResourceFile(String filename) throws FileNotFoundException {
         ClassLoader classLoader = getClass().getClassLoader();
         if (classLoader.getResource(filename) == null) {
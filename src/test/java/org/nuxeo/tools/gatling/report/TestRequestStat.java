@@ -0,0 +1,247 @@
+/*
+ * (C) Copyright 2015 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     bdelbosc
+ */
+package org.nuxeo.tools.gatling.report;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRequestStat {
+
+    @Test
+    public void computeExactStat() {
+        RequestStat stat = new RequestStat("sim", "scn", "req", 0, null);
+        for (int i = 1; i <= 100; i++) {
+            stat.add(1000, 1000 + i, true);
+        }
+        stat.computeStat(1);
+        Assert.assertEquals(1, stat.min);
+        Assert.assertEquals(100, stat.max);
+        Assert.assertEquals(50.5, stat.avg, 0.001);
+        Assert.assertEquals(50, stat.p50);
+        Assert.assertEquals(95, stat.p95);
+        Assert.assertEquals(29, stat.stddev);
+    }
+
+    @Test
+    public void computeExtraPercentiles() {
+        RequestStat stat = new RequestStat("sim", "scn", "req", 0, null);
+        stat.setExtraPercentiles(new double[] { 99.9, 99.99 });
+        for (int i = 1; i <= 10000; i++) {
+            stat.add(1000, 1000 + i, true);
+        }
+        stat.computeStat(1);
+        Assert.assertEquals(9900, stat.p99);
+        Assert.assertEquals(2, stat.getPercentiles().size());
+        Assert.assertEquals("p99.9", stat.getPercentiles().get(0).name);
+        Assert.assertEquals(9990, stat.getPercentiles().get(0).value);
+        Assert.assertEquals("p99.99", stat.getPercentiles().get(1).name);
+        Assert.assertEquals(9999, stat.getPercentiles().get(1).value);
+        Assert.assertTrue(stat.toString().endsWith("\t9990\t9999"));
+        Assert.assertTrue(RequestStat.header(new double[] { 99.9, 99.99 }).endsWith("\tp99.9\tp99.99"));
+    }
+
+    @Test
+    public void computeArrayPercentiles() {
+        // expected values of the commons-math Percentile estimation
+        double[] percentiles = { 5.0, 25.0, 50.0, 90.0, 95.0, 99.0 };
+        DurationArray durations = new DurationArray();
+        for (double value : durations.getPercentiles(percentiles)) {
+            Assert.assertTrue(Double.isNaN(value));
+        }
+        durations.add(42);
+        Assert.assertArrayEquals(new double[] { 42, 42, 42, 42, 42, 42 }, durations.getPercentiles(percentiles), 0.0);
+        durations = new DurationArray();
+        durations.add(20);
+        durations.add(10);
+        Assert.assertArrayEquals(new double[] { 10, 10, 15, 20, 20, 20 }, durations.getPercentiles(percentiles), 0.0);
+        // pos < 1 for p5 and pos >= size for p99
+        durations = new DurationArray();
+        for (int i = 10; i >= 1; i--) {
+            durations.add(i);
+        }
+        Assert.assertArrayEquals(new double[] { 1, 2.75, 5.5, 9.9, 10, 10 }, durations.getPercentiles(percentiles),
+                1e-9);
+        durations = new DurationArray();
+        for (long value : new long[] { 20, -30, 0, -10 }) {
+            durations.add(value);
+        }
+        Assert.assertArrayEquals(new double[] { -30, -25, -5, 20, 20, 20 }, durations.getPercentiles(percentiles),
+                1e-9);
+        Assert.assertEquals(-5, durations.getPercentile(50.0), 1e-9);
+    }
+
+    @Test
+    public void computeArrayStdDev() {
+        // expected values of the commons-math bias corrected StandardDeviation
+        DurationArray durations = new DurationArray();
+        Assert.assertTrue(Double.isNaN(durations.getStdDev()));
+        durations.add(42);
+        Assert.assertEquals(42, durations.getMean(), 0.0);
+        Assert.assertEquals(0, durations.getStdDev(), 0.0);
+        durations.add(52);
+        Assert.assertEquals(47, durations.getMean(), 0.0);
+        Assert.assertEquals(Math.sqrt(50), durations.getStdDev(), 1e-9);
+        durations = new DurationArray();
+        for (long value : new long[] { 20, -30, 0, -10 }) {
+            durations.add(value);
+        }
+        Assert.assertEquals(-5, durations.getMean(), 0.0);
+        Assert.assertEquals(Math.sqrt(1300.0 / 3), durations.getStdDev(), 1e-9);
+    }
+
+    @Test
+    public void computeHistogramStat() {
+        RequestStat exact = new RequestStat("sim", "scn", "req", 0, null);
+        RequestStat histo = new RequestStat("sim", "scn", "req", 0, null, 2);
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long duration = (long) Math.exp(random.nextGaussian() + 5);
+            exact.add(1000, 1000 + duration, true);
+            histo.add(1000, 1000 + duration, true);
+        }
+        exact.computeStat(1);
+        histo.computeStat(1);
+        Assert.assertEquals(exact.count, histo.count);
+        Assert.assertEquals(exact.min, histo.min);
+        Assert.assertEquals(exact.max, histo.max);
+        Assert.assertEquals(exact.avg, histo.avg, 0.001);
+        Assert.assertEquals(exact.stddev, histo.stddev, 1);
+        Assert.assertEquals(exact.p50, histo.p50, exact.p50 * 0.01 + 1);
+        Assert.assertEquals(exact.p95, histo.p95, exact.p95 * 0.01 + 1);
+        Assert.assertEquals(exact.p99, histo.p99, exact.p99 * 0.01 + 1);
+    }
+
+    @Test
+    public void computeMappedStat() {
+        DurationArray exact = new DurationArray();
+        SpillFile file = new SpillFile(null);
+        // small segments to cross their boundaries, both durations share the file
+        MappedDurations mapped = new MappedDurations(file, 1000);
+        MappedDurations other = new MappedDurations(file, 1000);
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // a few negative and very large values
+            long duration = i % 1000 == 0 ? -random.nextInt(100) : (long) Math.exp(random.nextGaussian() * 2 + 5);
+            exact.add(duration);
+            (i % 3 == 0 ? other : mapped).add(duration);
+        }
+        mapped.merge(other);
+        Assert.assertEquals(exact.size(), mapped.size());
+        Assert.assertEquals(exact.getMin(), mapped.getMin());
+        Assert.assertEquals(exact.getMax(), mapped.getMax());
+        Assert.assertEquals(exact.getMean(), mapped.getMean(), 0.0001);
+        Assert.assertEquals(exact.getStdDev(), mapped.getStdDev(), 0.0001);
+        double[] percentiles = { 0.1, 25.0, 50.0, 90.0, 95.0, 99.0, 99.9, 99.99, 100.0 };
+        Assert.assertArrayEquals(exact.getPercentiles(percentiles), mapped.getPercentiles(percentiles), 0.0);
+        Assert.assertArrayEquals(exact.getSample(BoxPlot.SAMPLE_SIZE), mapped.getSample(BoxPlot.SAMPLE_SIZE));
+        for (double value : new double[] { -1000, -5, 0, 150.5, 1e9 }) {
+            Assert.assertEquals(exact.ceiling(value), mapped.ceiling(value));
+            Assert.assertEquals(exact.floor(value), mapped.floor(value));
+        }
+        mapped.close();
+        file.close();
+    }
+
+    @Test
+    public void computeMappedStatOnWideRange() {
+        SpillFile file = new SpillFile(null);
+        DurationArray exact = new DurationArray();
+        MappedDurations mapped = new MappedDurations(file, 1000);
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // spread over the int range so a second pass is needed
+            long duration = random.nextInt();
+            exact.add(duration);
+            mapped.add(duration);
+        }
+        double[] percentiles = { 0.1, 25.0, 50.0, 90.0, 99.9, 100.0 };
+        Assert.assertArrayEquals(exact.getPercentiles(percentiles), mapped.getPercentiles(percentiles), 0.0);
+        Assert.assertArrayEquals(exact.getSample(BoxPlot.SAMPLE_SIZE), mapped.getSample(BoxPlot.SAMPLE_SIZE));
+        for (double value : new double[] { -1e9, 0, 1e9 }) {
+            Assert.assertEquals(exact.ceiling(value), mapped.ceiling(value));
+            Assert.assertEquals(exact.floor(value), mapped.floor(value));
+        }
+        mapped.close();
+        file.close();
+    }
+
+    @Test
+    public void computeBoxPlot() {
+        RequestStat stat = new RequestStat("sim", "scn", "req", 0, null);
+        for (int i = 1; i <= 10000; i++) {
+            stat.add(1000, 1000 + i, true);
+        }
+        // outliers
+        stat.add(1000, 1000 + 50000, true);
+        stat.add(1000, 1000 + 90000, true);
+        stat.computeStat(1);
+        BoxPlot box = stat.getBoxPlot();
+        Assert.assertEquals(2500.75, box.q1, 0.5);
+        Assert.assertEquals(5001.5, box.median, 0.5);
+        Assert.assertEquals(7502.25, box.q3, 0.5);
+        Assert.assertEquals(1, box.lowerFence);
+        Assert.assertEquals(10000, box.upperFence);
+        Assert.assertEquals(BoxPlot.SAMPLE_SIZE, box.sample.length);
+        Assert.assertEquals(90000, box.sample[BoxPlot.SAMPLE_SIZE - 1]);
+        String json = box.toString();
+        Assert.assertTrue(json, json.startsWith("{q1: 2500.8, median: 5001.5, q3: 7502.3, lowerfence: 1, "
+                + "upperfence: 10000, mean: "));
+        stat.setCompactBoxPlot(true);
+        String compact = stat.getBoxPlot().toString();
+        Assert.assertTrue(compact.length() < json.length());
+        // base64 of 2000 Float32
+        Assert.assertTrue(compact.contains("y: '") && compact.length() > 4 * 2000 * 4 / 3);
+    }
+
+    @Test
+    public void computeTimeSeries() {
+        RequestStat stat = new RequestStat("sim", "scn", "req", 0, null);
+        stat.setStart(10000);
+        stat.setWindow(1000);
+        // 10 requests per second during 10s, slower and failing during the 6th second
+        for (int i = 0; i < 100; i++) {
+            long end = 10000 + i * 100;
+            boolean slow = end >= 15000 && end < 16000;
+            stat.add(end - (slow ? 1000 : 10), end, !slow);
+        }
+        TimeSeries series = stat.getSeries();
+        Assert.assertEquals(10, series.size());
+        Assert.assertEquals(10000, series.getStart(0));
+        Assert.assertEquals(10, series.getCount(0));
+        Assert.assertEquals(10.0, series.getThroughput(0), 0.01);
+        Assert.assertEquals(10, series.getPercentile(0, 95.0));
+        Assert.assertEquals(10, series.getErrorCount(5));
+        Assert.assertEquals(0.0, series.getThroughput(5), 0.01);
+        Assert.assertEquals(1000, series.getPercentile(5, 95.0), 1000 * 0.125);
+        // windows are doubled to stay bounded
+        stat.add(10000 + TimeSeries.MAX_WINDOWS * 1000, 10000 + TimeSeries.MAX_WINDOWS * 1000 + 10, true);
+        Assert.assertEquals(2000, series.getWindow());
+        Assert.assertEquals(TimeSeries.MAX_WINDOWS / 2 + 1, series.size());
+        Assert.assertEquals(20, series.getCount(0));
+        Assert.assertEquals(10, series.getErrorCount(2));
+        // merge a finer series
+        RequestStat other = new RequestStat("sim", "scn", "req", 10000, null);
+        other.setWindow(1000);
+        other.add(11000, 11010, true);
+        stat.merge(other);
+        Assert.assertEquals(21, series.getCount(0));
+        Assert.assertTrue(series.getTimes().startsWith("[10000, 12000, 14000, "));
+    }
+
+}